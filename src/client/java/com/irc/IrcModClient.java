@@ -1,39 +1,107 @@
 package com.irc;
 
+import com.irc.chat.ChatFormat;
+import com.irc.concurrent.ModExecutor;
 import com.irc.config.IrcConfig;
 import com.irc.discord.DiscordVerifier;
+import com.irc.journal.MessageJournal;
+import com.irc.journal.Outbox;
+import com.irc.metrics.Metrics;
+import com.irc.network.Channels;
+import com.irc.network.HttpTransport;
 import com.irc.network.IrcClient;
+import com.irc.network.IrcMessage;
 import com.irc.network.MessageReceiver;
+import com.irc.network.OutboundMessage;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.message.v1.ClientSendMessageEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Text;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
 public class IrcModClient implements ClientModInitializer {
+    // Upper bound of the random delay before a cached verification is rechecked
+    private static final long REVALIDATE_JITTER_MS = 30_000;
+    // At most one "worker is busy" or "can't reach the worker" line per this interval, however often sends wait
+    private static final long DELAY_NOTICE_INTERVAL_MS = 10_000;
+    // Enough of a rejected message to tell which one it was
+    private static final int REJECTED_PREVIEW_LENGTH = 40;
+
     private static IrcModClient instance;
     private static IrcClient ircClient;
     private static MessageReceiver messageReceiver;
     private static DiscordVerifier discordVerifier;
-    private static boolean isVerified = false;
+    private static volatile boolean isVerified = false;
+    private static volatile long lastDelayNotice;
 
     @Override
     public void onInitializeClient() {
         instance = this;
         IrcMod.LOGGER.info("IRC Mod Client initialized!");
 
-        // Load configuration
+        // Load configuration and apply later edits of the file without a restart
         IrcConfig.load();
+        IrcConfig.startWatching();
 
         // Initialize Discord verifier
         discordVerifier = new DiscordVerifier();
 
+        // Unsent messages are written ahead to disk, so a crash or an unreachable worker does not lose them
+        Outbox outbox = null;
+        if (IrcConfig.isOutboxEnabled()) {
+            try {
+                outbox = Outbox.open(FabricLoader.getInstance().getGameDir().resolve("irc").resolve("outbox"));
+            } catch (IOException e) {
+                IrcMod.LOGGER.error("Failed to open IRC outbox, unsent messages will not survive a restart", e);
+            }
+        }
+
         // Initialize IRC client
-        ircClient = new IrcClient(IrcConfig.getWorkersUrl());
+        ircClient = new IrcClient(IrcConfig.getWorkersUrl(), outbox);
+        ircClient.setDeliveryListener(new DeliveryNotices());
+
+        // Open the local message journal so restarts resume instead of re-fetching the backlog
+        MessageJournal journal = null;
+        if (IrcConfig.isJournalEnabled()) {
+            try {
+                journal = MessageJournal.open(
+                        FabricLoader.getInstance().getGameDir().resolve("irc").resolve("journal"));
+            } catch (IOException e) {
+                IrcMod.LOGGER.error("Failed to open IRC message journal, continuing without it", e);
+            }
+        }
 
         // Initialize message receiver
-        messageReceiver = new MessageReceiver(ircClient);
+        messageReceiver = new MessageReceiver(ircClient, journal);
         messageReceiver.start();
 
+        // Periodic metrics snapshot, for tuning intervals and spotting slow workers after the fact
+        if (IrcConfig.getMetricsDumpIntervalSeconds() > 0) {
+            Metrics.startDump(FabricLoader.getInstance().getGameDir().resolve("irc").resolve("metrics.txt"),
+                    IrcConfig.getMetricsDumpIntervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        // Received messages are rendered from the client tick, a few per tick
+        ClientTickEvents.END_CLIENT_TICK.register(client -> messageReceiver.getInbox().drain(client));
+
+        // Session work (auth page, code exchange) ends with the server connection, everything else with the game
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> ModExecutor.get()
+                .cancel(ModExecutor.Scope.SESSION));
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            messageReceiver.stop();
+            ircClient.shutdown();
+            IrcConfig.flush();
+            ModExecutor.get().shutdown();
+        });
+
         // Register chat message handler
         ClientSendMessageEvents.ALLOW_CHAT.register(message -> {
             if (message != null && message.startsWith("%irc ")) {
@@ -95,6 +163,52 @@ public class IrcModClient implements ClientModInitializer {
             return;
         }
 
+        // Handle %irc history [count], served from the local journal
+        if (trimmed.equals("history") || trimmed.startsWith("history ")) {
+            showHistory(trimmed.substring(7).trim());
+            return;
+        }
+
+        // Handle %irc stats
+        if (trimmed.equals("stats")) {
+            showStats();
+            return;
+        }
+
+        // Handle %irc join #channel, %irc part [#channel] and %irc channels
+        if (trimmed.equals("join") || trimmed.startsWith("join ")) {
+            joinChannel(trimmed.substring(4).trim());
+            return;
+        }
+        if (trimmed.equals("part") || trimmed.startsWith("part ")) {
+            partChannel(trimmed.substring(4).trim());
+            return;
+        }
+        if (trimmed.equals("channels")) {
+            showChannels();
+            return;
+        }
+
+        // Handle %irc #channel to switch and %irc #channel <message> to send without switching
+        String channel = messageReceiver.getCursors().getActive();
+        if (trimmed.startsWith("#")) {
+            int space = trimmed.indexOf(' ');
+            String name = Channels.normalize(space < 0 ? trimmed : trimmed.substring(0, space));
+            if (name == null || !messageReceiver.getCursors().isJoined(name)) {
+                MinecraftClient.getInstance().player.sendMessage(
+                        Text.literal("§c[IRC] You are not in " + (space < 0 ? trimmed : trimmed.substring(0, space))
+                                + ", use %irc join <#channel>"),
+                        false);
+                return;
+            }
+            if (space < 0) {
+                switchChannel(name);
+                return;
+            }
+            channel = name;
+            trimmed = trimmed.substring(space + 1).trim();
+        }
+
         // Handle regular %irc <message>
         if (!isVerified) {
             MinecraftClient.getInstance().player.sendMessage(
@@ -111,38 +225,221 @@ public class IrcModClient implements ClientModInitializer {
             return;
         }
 
-        ircClient.sendMessage(trimmed);
+        // Checked before queueing, so the message itself does not count as a backlog
+        int ahead = ircClient.getQueuedMessageCount();
+        long delayMs = ircClient.getSendDelayMs();
+        if (!ircClient.sendMessage(channel, trimmed)) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] Too many messages queued, slow down!"),
+                    false);
+            return;
+        }
+        messageReceiver.onLocalSend();
+
+        // "Message sent!" follows once the worker acknowledged it; say so now if it has to wait
+        if (ahead > 0 || delayMs > 0) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§e[IRC] Message queued" + (ahead > 0 ? " (" + ahead + " ahead)" : "")
+                            + (delayMs >= 1000 ? ", sending in " + (delayMs + 999) / 1000 + "s" : "")),
+                    false);
+        }
+    }
+
+    // Shows what became of sent messages in chat, called on the sender task
+    private static class DeliveryNotices implements IrcClient.DeliveryListener {
+        @Override
+        public void onDelivered(List<OutboundMessage> messages) {
+            if (messages.size() > 1) {
+                show("§a[IRC] " + messages.size() + " messages sent");
+                return;
+            }
+            String channel = messages.get(0).channel();
+            show(Channels.isDefault(channel) ? "§a[IRC] Message sent!" : "§a[IRC] Message sent to " + channel + "!");
+        }
+
+        @Override
+        public void onRejected(OutboundMessage message, String reason) {
+            String text = message.text();
+            String preview = text.length() > REJECTED_PREVIEW_LENGTH
+                    ? text.substring(0, REJECTED_PREVIEW_LENGTH) + "..." : text;
+            show("§c[IRC] The IRC worker rejected your message (" + reason + "): §7" + preview);
+        }
+
+        @Override
+        public void onDelayed(int queued, long retryInMs, boolean throttled) {
+            long now = System.currentTimeMillis();
+            if (now - lastDelayNotice < DELAY_NOTICE_INTERVAL_MS) {
+                return;
+            }
+            lastDelayNotice = now;
+            String retry = queued + " message(s) queued, retrying in " + Math.max(1, (retryInMs + 999) / 1000) + "s";
+            show(throttled ? "§e[IRC] The IRC worker is busy, " + retry
+                    : "§e[IRC] Can't reach the IRC worker, " + retry);
+        }
+
+        private static void show(String text) {
+            MinecraftClient client = MinecraftClient.getInstance();
+            client.execute(() -> {
+                if (client.player != null) {
+                    client.player.sendMessage(Text.literal(text), false);
+                }
+            });
+        }
+    }
+
+    private void joinChannel(String name) {
+        String channel = Channels.normalize(name);
+        if (channel == null) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] Usage: %irc join <#channel> (letters, digits, - and _, up to 32)"),
+                    false);
+            return;
+        }
+        boolean joined = messageReceiver.join(channel);
+        MinecraftClient.getInstance().player.sendMessage(
+                Text.literal(joined ? "§a[IRC] Joined " + channel + ", messages now go there"
+                        : "§7[IRC] Now talking in " + channel),
+                false);
+    }
+
+    private void partChannel(String name) {
+        String channel = name.isEmpty() ? messageReceiver.getCursors().getActive() : Channels.normalize(name);
+        if (channel == null || Channels.isDefault(channel)) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] Usage: %irc part [#channel] (" + Channels.DEFAULT + " cannot be left)"),
+                    false);
+            return;
+        }
+        if (!messageReceiver.part(channel)) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] You are not in " + channel),
+                    false);
+            return;
+        }
+        MinecraftClient.getInstance().player.sendMessage(
+                Text.literal("§a[IRC] Left " + channel + ", now talking in "
+                        + messageReceiver.getCursors().getActive()),
+                false);
+    }
 
-        // Show confirmation
+    private void switchChannel(String channel) {
+        long unread = messageReceiver.getInbox().getUnreadCount(channel);
+        messageReceiver.switchTo(channel);
         MinecraftClient.getInstance().player.sendMessage(
-                Text.literal("§a[IRC] Message sent!"),
+                Text.literal("§7[IRC] Now talking in " + channel + (unread > 0 ? " (" + unread + " new)" : "")),
                 false);
     }
 
+    private void showChannels() {
+        String active = messageReceiver.getCursors().getActive();
+        StringBuilder line = new StringBuilder("§7[IRC] Channels:");
+        for (String channel : messageReceiver.getCursors().getChannels()) {
+            line.append(' ').append(channel.equals(active) ? "§f" + channel + "§7" : channel);
+            long unread = messageReceiver.getInbox().getUnreadCount(channel);
+            if (unread > 0) {
+                line.append(" (").append(unread).append(" new)");
+            }
+        }
+        MinecraftClient.getInstance().player.sendMessage(Text.literal(line.toString()), false);
+    }
+
+    private void showHistory(String countArg) {
+        MessageJournal journal = messageReceiver.getJournal();
+        if (journal == null) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] Message history is disabled."),
+                    false);
+            return;
+        }
+
+        int count;
+        try {
+            count = countArg.isEmpty() ? 20 : Math.max(1, Math.min(100, Integer.parseInt(countArg)));
+        } catch (NumberFormatException e) {
+            MinecraftClient.getInstance().player.sendMessage(
+                    Text.literal("§c[IRC] Usage: %irc history [count]"),
+                    false);
+            return;
+        }
+
+        ModExecutor.get().submit(ModExecutor.Scope.SESSION, () -> {
+            List<IrcMessage> messages = journal.readLast(count);
+            MinecraftClient client = MinecraftClient.getInstance();
+            client.execute(() -> {
+                if (client.player == null) {
+                    return;
+                }
+                client.player.sendMessage(
+                        Text.literal("§7[IRC] Last " + messages.size() + " messages:"),
+                        false);
+                for (IrcMessage message : messages) {
+                    client.player.sendMessage(ChatFormat.message(message), false);
+                }
+            });
+        });
+    }
+
+    private void showStats() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        client.player.sendMessage(
+                Text.literal("§7[IRC] HTTP: " + HttpTransport.get().getStats()),
+                false);
+        client.player.sendMessage(
+                Text.literal("§7[IRC] Poll interval: " + messageReceiver.getPollIntervalMs() + " ms, queued sends: "
+                        + ircClient.getQueuedMessageCount() + ", send delay: " + ircClient.getSendDelayMs()
+                        + " ms, tasks: " + ModExecutor.get().getStats()),
+                false);
+        client.player.sendMessage(
+                Text.literal("§7[IRC] Receiving: " + messageReceiver.getHealth()),
+                false);
+        for (String line : Metrics.report()) {
+            client.player.sendMessage(Text.literal("§7[IRC] " + line), false);
+        }
+    }
+
     private void checkDiscordVerification() {
         // Check if user has a stored token
         String token = IrcConfig.getDiscordToken();
-        if (token != null && !token.isEmpty()) {
-            // Verify token is still valid
-            discordVerifier.verifyTokenAsync(token, (valid) -> {
-                isVerified = valid;
-                if (valid) {
-                    IrcMod.LOGGER.info("Discord verification token is valid");
-                } else {
-                    IrcMod.LOGGER.warn("Discord verification token is invalid, user needs to re-verify");
-                    // Automatically open auth page if token is invalid
-                    openDiscordAuthPage();
-                }
-            });
-        } else {
+        if (token == null || token.isEmpty()) {
             // No token found, automatically open auth page
             IrcMod.LOGGER.info("No Discord token found, opening auth page");
+            setVerified(false);
             openDiscordAuthPage();
+            return;
         }
+
+        long delayMs = 0;
+        if (discordVerifier.hasCachedVerification()) {
+            // Trust the cached verification right away so sends work from the first tick
+            setVerified(true);
+            IrcMod.LOGGER.info("Using cached Discord verification");
+            if (!discordVerifier.needsRevalidation()) {
+                return;
+            }
+            // Spread background rechecks out so many clients launching together do not hit the worker at once
+            delayMs = ThreadLocalRandom.current().nextLong(REVALIDATE_JITTER_MS);
+        }
+
+        // Verify token is still valid
+        discordVerifier.verifyTokenAsync(token, delayMs, (result) -> {
+            if (result == DiscordVerifier.Result.VALID) {
+                setVerified(true);
+                IrcMod.LOGGER.info("Discord verification token is valid");
+            } else if (result == DiscordVerifier.Result.INVALID) {
+                setVerified(false);
+                IrcMod.LOGGER.warn("Discord verification token is invalid, user needs to re-verify");
+                // Automatically open auth page if token is invalid
+                openDiscordAuthPage();
+            } else if (result == DiscordVerifier.Result.UNREACHABLE && !isVerified) {
+                // A superseded check stays quiet, the check of the new token reports instead
+                IrcMod.LOGGER.warn("Could not reach the worker to verify the Discord token");
+            }
+        });
     }
 
     private void openDiscordAuthPage() {
-        new Thread(() -> {
+        // Only one auth page lookup at a time, no matter how often %irc link is typed
+        ModExecutor.get().submitExclusive("discord-auth-page", ModExecutor.Scope.SESSION, () -> {
             try {
                 String authUrl = discordVerifier.getAuthUrl();
                 if (authUrl != null && !authUrl.isEmpty()) {
@@ -183,7 +480,7 @@ public class IrcModClient implements ClientModInitializer {
             } catch (Exception e) {
                 IrcMod.LOGGER.error("Error opening Discord auth page", e);
             }
-        }).start();
+        });
     }
 
     private boolean openBrowser(String url) {
@@ -227,6 +524,10 @@ public class IrcModClient implements ClientModInitializer {
 
     public static void setVerified(boolean verified) {
         isVerified = verified;
+        // Receiving stops hitting the worker while unverified and resumes as soon as verification succeeds
+        if (messageReceiver != null) {
+            messageReceiver.setVerified(verified);
+        }
     }
 
     public static boolean isVerified() {
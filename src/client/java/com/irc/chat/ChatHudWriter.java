@@ -0,0 +1,71 @@
+package com.irc.chat;
+
+import com.irc.mixin.ChatHudAccessor;
+import com.irc.network.IrcMessage;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.hud.ChatHud;
+import net.minecraft.client.gui.hud.ChatHudLine;
+import net.minecraft.text.Text;
+
+import java.util.List;
+
+// New lines go through the player so they are narrated and filtered like any game message; a repeat counter
+// is written in place, re-wrapping only that line
+public class ChatHudWriter implements RepeatCollapser.Lines<ChatHudLine> {
+    private final MinecraftClient client;
+    private final RepeatCollapser<ChatHudLine> collapser = new RepeatCollapser<>(this);
+
+    public ChatHudWriter(MinecraftClient client) {
+        this.client = client;
+    }
+
+    public void add(IrcMessage message) {
+        collapser.add(message);
+    }
+
+    public void addNotice(Text text) {
+        collapser.addNotice(text);
+    }
+
+    public void flush() {
+        collapser.flush();
+    }
+
+    @Override
+    public ChatHudLine add(Text text) {
+        client.player.sendMessage(text, false);
+        List<ChatHudLine> lines = history();
+        // Hidden messages never reach the HUD, the newest line is then someone else's
+        return !lines.isEmpty() && lines.get(0).content() == text ? lines.get(0) : null;
+    }
+
+    @Override
+    public boolean isNewest(ChatHudLine line) {
+        List<ChatHudLine> lines = history();
+        return !lines.isEmpty() && lines.get(0) == line;
+    }
+
+    @Override
+    public ChatHudLine replaceNewest(ChatHudLine line, Text text) {
+        ChatHudAccessor hud = (ChatHudAccessor) client.inGameHud.getChatHud();
+        // A repeat counts as new activity, so the line starts fading again from now
+        ChatHudLine updated = new ChatHudLine(client.inGameHud.getTicks(), text, line.signature(), line.tag());
+        hud.getMessages().set(0, updated);
+
+        // The newest line is wrapped into the first visible lines, the last of them ends the entry
+        List<ChatHudLine.Visible> visible = hud.getVisibleMessages();
+        if (!visible.isEmpty()) {
+            visible.remove(0);
+            while (!visible.isEmpty() && !visible.get(0).endOfEntry()) {
+                visible.remove(0);
+            }
+        }
+        hud.invokeAddVisibleMessage(updated);
+        return updated;
+    }
+
+    private List<ChatHudLine> history() {
+        ChatHud hud = client.inGameHud.getChatHud();
+        return ((ChatHudAccessor) hud).getMessages();
+    }
+}
@@ -0,0 +1,156 @@
+package com.irc.chat;
+
+import com.irc.config.IrcConfig;
+import com.irc.jfr.DisplayEvent;
+import com.irc.metrics.Counter;
+import com.irc.metrics.Metrics;
+import com.irc.network.Channels;
+import com.irc.network.IrcMessage;
+import net.minecraft.client.MinecraftClient;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands received messages from the network threads to the client thread, a limited number per tick; only the
+// active channel is rendered, the others keep their newest messages until the player switches
+public class ChatInbox {
+    // Upper bound while nobody drains, e.g. on the title screen
+    private static final int MAX_QUEUED = 1000;
+    private static final int MAX_UNREAD_KEPT = 50;
+    private static final Counter DISPLAY_SKIPPED = Metrics.counter("display.skipped");
+
+    private final Queue<IrcMessage> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong skippedBacklog = new AtomicLong();
+    // Guarded by itself; background messages are rare next to the active channel's traffic
+    private final Map<String, Unread> unread = new HashMap<>();
+    private volatile String activeChannel = Channels.DEFAULT;
+    // Only used on the client thread, created on the first drain
+    private ChatHudWriter writer;
+
+    private static final class Unread {
+        private final ArrayDeque<IrcMessage> messages = new ArrayDeque<>();
+        private long count;
+    }
+
+    public ChatInbox() {
+        Metrics.gauge("display.queue", size::get);
+    }
+
+    // Called from network threads
+    public void offer(IrcMessage message) {
+        if (!message.channel().equals(activeChannel)) {
+            synchronized (unread) {
+                // Checked again under the lock, so a concurrent switch cannot strand the message
+                if (!message.channel().equals(activeChannel)) {
+                    Unread channel = unread.computeIfAbsent(message.channel(), key -> new Unread());
+                    channel.count++;
+                    channel.messages.addLast(message);
+                    if (channel.messages.size() > MAX_UNREAD_KEPT) {
+                        channel.messages.pollFirst();
+                    }
+                    return;
+                }
+            }
+        }
+        queue.offer(message);
+        if (size.incrementAndGet() > MAX_QUEUED && queue.poll() != null) {
+            size.decrementAndGet();
+            skipped.incrementAndGet();
+        }
+    }
+
+    // Messages that were never fetched because the catch-up gap was too large
+    public void offerSkippedBacklog(long count) {
+        skippedBacklog.addAndGet(count);
+    }
+
+    // Returns how many messages arrived in the channel while it was in the background, including dropped ones
+    public long switchTo(String channel) {
+        Unread waiting;
+        synchronized (unread) {
+            activeChannel = channel;
+            waiting = unread.remove(channel);
+        }
+        if (waiting == null) {
+            return 0;
+        }
+        if (waiting.count > waiting.messages.size()) {
+            skipped.addAndGet((int) Math.min(Integer.MAX_VALUE, waiting.count - waiting.messages.size()));
+        }
+        waiting.messages.forEach(this::offer);
+        return waiting.count;
+    }
+
+    public void forget(String channel) {
+        synchronized (unread) {
+            unread.remove(channel);
+        }
+    }
+
+    public long getUnreadCount(String channel) {
+        synchronized (unread) {
+            Unread waiting = unread.get(channel);
+            return waiting != null ? waiting.count : 0;
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    // Called on the client thread at the end of every tick
+    public void drain(MinecraftClient client) {
+        if (client.player == null || (size.get() == 0 && skippedBacklog.get() == 0)) {
+            return;
+        }
+
+        if (writer == null) {
+            writer = new ChatHudWriter(client);
+        }
+
+        DisplayEvent event = new DisplayEvent();
+        event.begin();
+        long backlog = skippedBacklog.getAndSet(0);
+        if (backlog > 0) {
+            writer.addNotice(ChatFormat.notice("Skipped " + backlog + " older IRC messages while you were away"));
+        }
+
+        int budget = Math.max(1, IrcConfig.getMessagesPerTick());
+        // Too far behind to catch up at the per-tick budget: keep only the newest messages
+        if (size.get() > IrcConfig.getMaxPendingMessages()) {
+            while (size.get() > budget && queue.poll() != null) {
+                size.decrementAndGet();
+                skipped.incrementAndGet();
+            }
+        }
+
+        int skippedCount = skipped.getAndSet(0);
+        if (skippedCount > 0) {
+            DISPLAY_SKIPPED.add(skippedCount);
+            writer.addNotice(ChatFormat.notice("+" + skippedCount + " more IRC messages, see %irc history"));
+        }
+
+        IrcMessage message;
+        int rendered = 0;
+        for (; rendered < budget && (message = queue.poll()) != null; rendered++) {
+            size.decrementAndGet();
+            writer.add(message);
+        }
+        writer.flush();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.rendered = rendered;
+            event.skipped = skippedCount;
+            event.queueDepth = size.get();
+            event.commit();
+        }
+    }
+}
@@ -4,37 +4,68 @@ import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.irc.IrcMod;
 import com.irc.IrcModClient;
+import com.irc.concurrent.ModExecutor;
 import com.irc.config.IrcConfig;
+import com.irc.jfr.AuthExchangeEvent;
+import com.irc.jfr.VerifyEvent;
+import com.irc.metrics.LogSampler;
+import com.irc.network.Compression;
+import com.irc.network.HttpTransport;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Text;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class DiscordVerifier {
-    private final HttpClient httpClient;
+    public enum Result {
+        VALID,
+        // The worker rejected the token, the user has to verify again
+        INVALID,
+        // The worker could not be asked (network error, 5xx), a cached verification still stands
+        UNREACHABLE,
+        // The token was replaced while it was being checked, the answer was dropped
+        SUPERSEDED
+    }
+
+    // How long a verification is trusted without asking the worker, unless the worker sends its own expiry
+    private static final long VERIFICATION_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    // A cached verification younger than this is not rechecked at startup
+    private static final long REVALIDATE_AFTER_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long AUTH_URL_TTL_MS = TimeUnit.HOURS.toMillis(6);
+
+    private final HttpTransport transport;
     private final Gson gson;
+    private volatile CachedAuthUrl cachedAuthUrl;
+
+    private record CachedAuthUrl(String workersUrl, String url, long expiresAt) {
+    }
 
     public DiscordVerifier() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this.transport = HttpTransport.get();
         this.gson = new Gson();
     }
 
-    public void verifyTokenAsync(String token, Consumer<Boolean> callback) {
-        new Thread(() -> {
-            boolean valid = verifyToken(token);
-            callback.accept(valid);
-        }).start();
+    public boolean hasCachedVerification() {
+        String token = IrcConfig.getDiscordToken();
+        return token != null && !token.isEmpty() && System.currentTimeMillis() < IrcConfig.getVerifiedUntil();
     }
 
-    public boolean verifyToken(String token) {
+    public boolean needsRevalidation() {
+        return System.currentTimeMillis() - IrcConfig.getVerifiedAt() > REVALIDATE_AFTER_MS;
+    }
+
+    public void verifyTokenAsync(String token, long delayMs, Consumer<Result> callback) {
+        ModExecutor.get().schedule(ModExecutor.Scope.CLIENT, () -> callback.accept(verifyToken(token)), delayMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public Result verifyToken(String token) {
         try {
             JsonObject payload = new JsonObject();
             payload.addProperty("action", "verify");
@@ -43,57 +74,96 @@ public class DiscordVerifier {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(IrcConfig.getWorkersUrl() + "/api/discord/verify"))
                     .header("Content-Type", "application/json")
+                    .header("Accept-Encoding", Compression.ACCEPT_ENCODING)
                     .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(payload)))
                     .timeout(Duration.ofSeconds(10))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request, Compression.ofString(),
+                    HttpTransport.Priority.CONTROL, new VerifyEvent());
 
+            // A new token from %irc link may have arrived while this one was checked, its own check decides
+            if (!token.equals(IrcConfig.getDiscordToken())) {
+                IrcMod.LOGGER.debug("Discord token changed during verification, ignoring the result");
+                return Result.SUPERSEDED;
+            }
             if (response.statusCode() == 200) {
                 JsonObject json = gson.fromJson(response.body(), JsonObject.class);
                 boolean verified = json.has("verified") && json.get("verified").getAsBoolean();
 
-                if (verified) {
-                    IrcModClient.setVerified(true);
-                    MinecraftClient client = MinecraftClient.getInstance();
-                    if (client.player != null) {
-                        client.execute(() -> {
-                            client.player.sendMessage(
-                                    Text.literal("§a[IRC] Discord verification successful!"),
-                                    false);
-                        });
-                    }
+                if (!verified) {
+                    IrcConfig.setVerification(0, 0);
+                    return Result.INVALID;
                 }
 
-                return verified;
+                recordVerification(json);
+                // A background recheck of a cached verification stays silent
+                boolean announce = !IrcModClient.isVerified();
+                IrcModClient.setVerified(true);
+                MinecraftClient client = MinecraftClient.getInstance();
+                if (announce && client.player != null) {
+                    client.execute(() -> {
+                        client.player.sendMessage(
+                                Text.literal("§a[IRC] Discord verification successful!"),
+                                false);
+                    });
+                }
+                return Result.VALID;
+            } else if (response.statusCode() == 401 || response.statusCode() == 403) {
+                IrcMod.LOGGER.error("Discord verification failed: {}", LogSampler.abbreviate(response.body()));
+                IrcConfig.setVerification(0, 0);
+                return Result.INVALID;
             } else {
-                IrcMod.LOGGER.error("Discord verification failed: {}", response.body());
-                return false;
+                IrcMod.LOGGER.error("Discord verification failed (status {}): {}", response.statusCode(),
+                        LogSampler.abbreviate(response.body()));
+                return Result.UNREACHABLE;
             }
         } catch (Exception e) {
             IrcMod.LOGGER.error("Error verifying Discord token", e);
-            return false;
+            return Result.UNREACHABLE;
         }
     }
 
+    // Workers may state how long the verification holds with "expiresAt" (epoch millis)
+    private void recordVerification(JsonObject json) {
+        long now = System.currentTimeMillis();
+        long expiresAt = json.has("expiresAt") ? json.get("expiresAt").getAsLong() : now + VERIFICATION_TTL_MS;
+        IrcConfig.setVerification(now, expiresAt);
+    }
+
+    // Cached for a few hours unless the worker says otherwise with Cache-Control
     public String getAuthUrl() {
+        String workersUrl = IrcConfig.getWorkersUrl();
+        CachedAuthUrl cached = cachedAuthUrl;
+        if (cached != null && cached.workersUrl().equals(workersUrl)
+                && System.currentTimeMillis() < cached.expiresAt()) {
+            return cached.url();
+        }
+
         try {
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(IrcConfig.getWorkersUrl() + "/api/discord/authurl"))
+                    .uri(URI.create(workersUrl + "/api/discord/authurl"))
+                    .header("Accept-Encoding", Compression.ACCEPT_ENCODING)
                     .GET()
                     .timeout(Duration.ofSeconds(10))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = transport.send(request, Compression.ofString(),
+                    HttpTransport.Priority.CONTROL);
 
             if (response.statusCode() == 200) {
                 JsonObject json = gson.fromJson(response.body(), JsonObject.class);
                 if (json.has("authUrl")) {
-                    return json.get("authUrl").getAsString();
+                    String authUrl = json.get("authUrl").getAsString();
+                    long ttl = authUrlTtl(response.headers().firstValue("Cache-Control").orElse(""));
+                    cachedAuthUrl = ttl > 0
+                            ? new CachedAuthUrl(workersUrl, authUrl, System.currentTimeMillis() + ttl)
+                            : null;
+                    return authUrl;
                 }
             }
 
-            IrcMod.LOGGER.error("Failed to get auth URL: {}", response.body());
+            IrcMod.LOGGER.error("Failed to get auth URL: {}", LogSampler.abbreviate(response.body()));
             return null;
         } catch (Exception e) {
             IrcMod.LOGGER.error("Error getting auth URL", e);
@@ -101,8 +171,25 @@ public class DiscordVerifier {
         }
     }
 
+    private static long authUrlTtl(String cacheControl) {
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store") || directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Math.min(AUTH_URL_TTL_MS, TimeUnit.SECONDS.toMillis(Long.parseLong(directive.substring(8))));
+                } catch (NumberFormatException e) {
+                    // Fall back to the default
+                }
+            }
+        }
+        return AUTH_URL_TTL_MS;
+    }
+
     public void handleAuthCode(String code, Consumer<Boolean> callback) {
-        new Thread(() -> {
+        ModExecutor.get().submit(ModExecutor.Scope.SESSION, () -> {
             try {
                 JsonObject payload = new JsonObject();
                 payload.addProperty("action", "exchange");
@@ -111,11 +198,13 @@ public class DiscordVerifier {
                 HttpRequest request = HttpRequest.newBuilder()
                         .uri(URI.create(IrcConfig.getWorkersUrl() + "/api/discord/callback"))
                         .header("Content-Type", "application/json")
+                        .header("Accept-Encoding", Compression.ACCEPT_ENCODING)
                         .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(payload)))
                         .timeout(Duration.ofSeconds(10))
                         .build();
 
-                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                HttpResponse<String> response = transport.send(request, Compression.ofString(),
+                        HttpTransport.Priority.CONTROL, new AuthExchangeEvent());
 
                 if (response.statusCode() == 200) {
                     JsonObject json = gson.fromJson(response.body(), JsonObject.class);
@@ -125,6 +214,7 @@ public class DiscordVerifier {
 
                         if (verified) {
                             IrcConfig.setDiscordToken(token);
+                            recordVerification(json);
                             callback.accept(true);
                         } else {
                             // Verification failed even though we got a token
@@ -138,7 +228,7 @@ public class DiscordVerifier {
                     }
                 } else {
                     String errorBody = response.body();
-                    IrcMod.LOGGER.error("Failed to exchange auth code: {}", errorBody);
+                    IrcMod.LOGGER.error("Failed to exchange auth code: {}", LogSampler.abbreviate(errorBody));
 
                     // Try to parse error for debug info and show user-friendly message
                     try {
@@ -186,6 +276,6 @@ public class DiscordVerifier {
                 IrcMod.LOGGER.error("Error handling auth code", e);
                 callback.accept(false);
             }
-        }).start();
+        });
     }
 }
@@ -0,0 +1,22 @@
+package com.irc.mixin;
+
+import net.minecraft.client.gui.hud.ChatHud;
+import net.minecraft.client.gui.hud.ChatHudLine;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+import java.util.List;
+
+// Lets a line that was already added be replaced without re-wrapping the whole chat
+@Mixin(ChatHud.class)
+public interface ChatHudAccessor {
+    @Accessor("messages")
+    List<ChatHudLine> getMessages();
+
+    @Accessor("visibleMessages")
+    List<ChatHudLine.Visible> getVisibleMessages();
+
+    @Invoker("addVisibleMessage")
+    void invokeAddVisibleMessage(ChatHudLine message);
+}
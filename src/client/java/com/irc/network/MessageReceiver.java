@@ -1,31 +1,96 @@
 package com.irc.network;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.irc.IrcMod;
-import net.minecraft.client.MinecraftClient;
-import net.minecraft.text.Text;
+import com.irc.chat.ChatInbox;
+import com.irc.concurrent.ModExecutor;
+import com.irc.config.IrcConfig;
+import com.irc.journal.MessageJournal;
+import com.irc.metrics.Counter;
+import com.irc.metrics.LogSampler;
+import com.irc.metrics.Metrics;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class MessageReceiver {
+    // Drop a stream that has not delivered data or a heartbeat for this long and reconnect
+    private static final long STREAM_IDLE_TIMEOUT_MS = 60_000;
+    private static final long STREAM_RECONNECT_DELAY_MS = 1_000;
+    private static final long STREAM_MAX_RECONNECT_DELAY_MS = 30_000;
+    // Failed receives in a row before the breaker stops requests, and the range of its backoff
+    private static final int BREAKER_FAILURE_THRESHOLD = 3;
+    private static final long BREAKER_BASE_DELAY_MS = 2_000;
+    private static final long BREAKER_MAX_DELAY_MS = 5 * 60_000;
+    // While unverified, a single receive is still tried this often in case the token was fixed elsewhere
+    private static final long UNVERIFIED_RECHECK_MS = 5 * 60_000;
+    private static final long JOURNAL_CHECKPOINT_INTERVAL_MS = 5_000;
+    private static final int RECENT_ID_CAPACITY = 4096;
+    private static final Counter RECEIVED = Metrics.counter("messages.received");
+    private static final Counter DUPLICATES = Metrics.counter("messages.duplicates");
+    private static final Counter STREAM_RECONNECTS = Metrics.counter("stream.reconnects");
+    private static final Counter RECEIVES_HELD = Metrics.counter("receive.held");
+    // Logging every received message is too much even at debug level, a sample shows the traffic
+    private static final LogSampler QUEUED_LOG = new LogSampler(50);
+
     private final IrcClient ircClient;
-    private final ScheduledExecutorService scheduler;
-    private final Gson gson;
-    private long lastTimestamp;
-    private boolean running;
+    private final ModExecutor executor;
+    private final PollScheduler pollScheduler;
+    private final ChatInbox inbox;
+    private final MessageJournal journal;
+    private final RecentIdSet recentIds;
+    private final ChannelCursors cursors;
+    private final List<Consumer<IrcMessage>> listeners = new CopyOnWriteArrayList<>();
+    private final CircuitBreaker breaker;
+    private final long unverifiedRecheckMs;
+    // Wakes the stream loop out of a backoff, e.g. once the player verified. Not a monitor, whose wait would pin
+    // the stream loop's virtual thread to its carrier
+    private final ReentrantLock wakeupLock = new ReentrantLock();
+    private final Condition wakeup = wakeupLock.newCondition();
+    private volatile boolean verified = true;
+    private volatile long nextUnverifiedCheck;
+    private Future<?> streamTask;
+    private Future<?> streamWatchdog;
+    private Future<?> journalCheckpoint;
+    private volatile boolean running;
+
+    // Without a journal nothing is kept on disk
+    public MessageReceiver(IrcClient ircClient, MessageJournal journal) {
+        this(ircClient, journal, UNVERIFIED_RECHECK_MS);
+    }
 
-    public MessageReceiver(IrcClient ircClient) {
+    MessageReceiver(IrcClient ircClient, MessageJournal journal, long unverifiedRecheckMs) {
         this.ircClient = ircClient;
-        this.scheduler = Executors.newScheduledThreadPool(1);
-        this.gson = new Gson();
-        // Initialize to 0 so we get all messages from the start
-        // The worker will filter messages newer than this timestamp
-        this.lastTimestamp = 0;
+        this.unverifiedRecheckMs = unverifiedRecheckMs;
+        this.journal = journal;
+        this.executor = ModExecutor.get();
+        this.pollScheduler = new PollScheduler(executor, this::poll, IrcConfig.getPollMinIntervalMs(),
+                IrcConfig.getPollMaxIntervalMs());
+        this.inbox = new ChatInbox();
+        this.recentIds = new RecentIdSet(RECENT_ID_CAPACITY);
+        this.breaker = new CircuitBreaker("IRC receive", BREAKER_FAILURE_THRESHOLD, BREAKER_BASE_DELAY_MS,
+                BREAKER_MAX_DELAY_MS);
+        // Each channel has its own (timestamp, id) cursor, so messages sharing a millisecond are not skipped
+        this.cursors = new ChannelCursors();
+        for (String channel : IrcConfig.getChannels()) {
+            String normalized = Channels.normalize(channel);
+            if (normalized != null) {
+                cursors.join(normalized);
+            }
+        }
+        // Resume from the newest journaled message of each channel, or start at 0 to get all messages
+        // The worker will filter messages newer than these cursors
+        if (journal != null) {
+            journal.getCursors().forEach((channel, cursor) -> cursors.advance(channel, cursor.timestamp(),
+                    cursor.id()));
+            // Remember what was already shown so an overlapping first response is not shown again
+            journal.readLast(RECENT_ID_CAPACITY / 8).forEach(message -> recentIds.add(message.id()));
+        }
         this.running = false;
     }
 
@@ -35,78 +100,423 @@ public class MessageReceiver {
         }
         running = true;
 
-        // Poll for new messages every 2 seconds
-        scheduler.scheduleAtFixedRate(() -> {
+        if (IrcConfig.isWebSocketEnabled() || IrcConfig.isStreamingEnabled()) {
+            // The stream reader blocks for as long as the stream is open, which is cheap on a virtual thread
+            streamTask = executor.submit(ModExecutor.Scope.CLIENT, this::runStream);
+            streamWatchdog = executor.scheduleAtFixedRate(ModExecutor.Scope.CLIENT, this::checkStreamIdle, 15, 15,
+                    TimeUnit.SECONDS);
+        } else {
+            startPolling();
+        }
+
+        if (journal != null) {
+            journalCheckpoint = executor.scheduleAtFixedRate(ModExecutor.Scope.CLIENT, journal::checkpoint,
+                    JOURNAL_CHECKPOINT_INTERVAL_MS, JOURNAL_CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        IrcMod.LOGGER.info("Message receiver started (lastTimestamp: {}, channels: {})",
+                cursors.get(Channels.DEFAULT).timestamp(), cursors.getChannels());
+    }
+
+    private void runStream() {
+        int streamFailures = 0;
+        boolean useWebSocket = IrcConfig.isWebSocketEnabled();
+        boolean useStream = IrcConfig.isStreamingEnabled();
+        while (running) {
+            if (!mayReceive()) {
+                if (!sleep(Math.max(100, getHeldForMs()))) {
+                    return;
+                }
+                continue;
+            }
+
+            // Pull any backlog in pages first, so the stream only has to deliver what is new
+            if (catchUp(true) < 0) {
+                // Reported to the breaker; once it opens, the check above holds the next attempts back
+                if (!sleep(STREAM_RECONNECT_DELAY_MS)) {
+                    return;
+                }
+                continue;
+            }
             if (!running) {
                 return;
             }
 
+            // A stream carries every joined channel, joining or leaving one reconnects it
+            ChannelCursors.Cursor cursor = cursors.get(Channels.DEFAULT);
+            String channels = cursors.vector(true);
+            IrcClient.StreamResult result = useWebSocket
+                    ? ircClient.openWebSocket(cursor.timestamp(), cursor.id(), channels, this::processMessage)
+                    : ircClient.streamMessages(cursor.timestamp(), cursor.id(), channels, this::processMessage);
+            if (!running) {
+                return;
+            }
+
+            if (result == IrcClient.StreamResult.UNSUPPORTED && useWebSocket && useStream) {
+                IrcMod.LOGGER.info("Falling back to HTTP stream for IRC messages");
+                useWebSocket = false;
+                continue;
+            }
+            if (result == IrcClient.StreamResult.UNSUPPORTED) {
+                IrcMod.LOGGER.info("Falling back to polling for IRC messages");
+                startPolling();
+                return;
+            }
+
+            if (result == IrcClient.StreamResult.UNAUTHORIZED) {
+                onUnauthorized();
+                continue;
+            }
+
+            // A clean close reconnects quickly, repeated failures back off with full jitter. The catch-up
+            // before each attempt goes through the breaker, so a worker that is down entirely is not hammered.
+            long reconnectDelay;
+            if (result == IrcClient.StreamResult.CLOSED) {
+                streamFailures = 0;
+                reconnectDelay = STREAM_RECONNECT_DELAY_MS;
+            } else {
+                reconnectDelay = CircuitBreaker.backoffMs(STREAM_RECONNECT_DELAY_MS, STREAM_MAX_RECONNECT_DELAY_MS,
+                        streamFailures++);
+            }
+            STREAM_RECONNECTS.increment();
+            IrcMod.LOGGER.debug("Reconnecting IRC message stream in {} ms (lastTimestamp: {})", reconnectDelay,
+                    cursors.get(Channels.DEFAULT).timestamp());
+            if (!sleep(reconnectDelay)) {
+                return;
+            }
+        }
+    }
+
+    // Returns false if interrupted; setVerified(true) cuts the sleep short
+    private boolean sleep(long millis) {
+        wakeupLock.lock();
+        try {
+            wakeup.await(millis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            wakeupLock.unlock();
+        }
+    }
+
+    // Not while the breaker is open, and only a rare recheck while unverified since every request would get a 401
+    private boolean mayReceive() {
+        if (!verified) {
+            long now = System.currentTimeMillis();
+            if (now < nextUnverifiedCheck) {
+                RECEIVES_HELD.increment();
+                return false;
+            }
+            nextUnverifiedCheck = now + unverifiedRecheckMs;
+        }
+        if (!breaker.allowRequest()) {
+            RECEIVES_HELD.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private long getHeldForMs() {
+        if (!verified) {
+            return Math.max(0, nextUnverifiedCheck - System.currentTimeMillis());
+        }
+        return breaker.getRemainingOpenMs();
+    }
+
+    // Every receive reports to the breaker; a 401 means the worker is fine but the token is not
+    private boolean report(ReceivePage page) {
+        if (page == null) {
+            breaker.onFailure();
+            return false;
+        }
+        breaker.onSuccess();
+        if (page.unauthorized()) {
+            onUnauthorized();
+            return false;
+        }
+        if (!verified) {
+            // The worker accepts the token again, e.g. it was fixed elsewhere, so stop holding receives back
+            IrcMod.LOGGER.info("IRC worker accepted the Discord token again, receiving resumed");
+            setVerified(true);
+        }
+        return true;
+    }
+
+    private void onUnauthorized() {
+        if (verified) {
+            IrcMod.LOGGER.info("IRC worker rejected the Discord token, receiving paused until verification");
+        }
+        verified = false;
+        nextUnverifiedCheck = System.currentTimeMillis() + unverifiedRecheckMs;
+    }
+
+    // While unverified, receives are held back instead of running into 401s
+    public void setVerified(boolean verified) {
+        boolean resumed = verified && !this.verified;
+        this.verified = verified;
+        if (resumed) {
+            breaker.reset();
+            wakeupLock.lock();
             try {
-                String response = ircClient.getMessages(lastTimestamp);
-                if (response != null && !response.isEmpty()) {
-                    IrcMod.LOGGER.debug("Received response from worker: {}", response);
-                    processMessages(response);
-                } else {
-                    IrcMod.LOGGER.debug("No messages received (response was null or empty)");
-                }
-            } catch (Exception e) {
-                IrcMod.LOGGER.error("Error in message receiver", e);
+                wakeup.signalAll();
+            } finally {
+                wakeupLock.unlock();
             }
-        }, 2, 2, TimeUnit.SECONDS);
+            pollScheduler.onActivity();
+        }
+    }
 
-        IrcMod.LOGGER.info("Message receiver started");
+    private void checkStreamIdle() {
+        if (ircClient.isStreaming()
+                && System.currentTimeMillis() - ircClient.getLastStreamActivity() > STREAM_IDLE_TIMEOUT_MS) {
+            IrcMod.LOGGER.debug("IRC message stream idle for too long, reconnecting");
+            ircClient.closeStream();
+        }
     }
 
-    public void stop() {
-        running = false;
-        scheduler.shutdown();
-        IrcMod.LOGGER.info("Message receiver stopped");
+    private void startPolling() {
+        pollScheduler.start();
     }
 
-    private void processMessages(String response) {
+    private void poll() {
+        if (!running) {
+            return;
+        }
+        if (!mayReceive()) {
+            pollScheduler.onIdle();
+            return;
+        }
+
+        int received = 0;
         try {
-            JsonObject json = gson.fromJson(response, JsonObject.class);
+            received = catchUp(false);
+        } catch (Exception e) {
+            IrcMod.LOGGER.error("Error in message receiver", e);
+        }
+
+        // Poll quickly while a conversation is going, back off while the channel is quiet
+        if (received > 0) {
+            pollScheduler.onActivity();
+        } else {
+            pollScheduler.onIdle();
+        }
+    }
+
+    // Pulls pages until the worker has nothing more, or skips to the latest messages if the gap is too large.
+    // Returns the number of messages received, or -1 if the first request failed
+    private int catchUp(boolean allChannels) {
+        // All pages of one catch-up ask for the same channels, the continuation carries the position
+        String channels = cursors.vector(allChannels);
+        ChannelCursors.Cursor cursor = cursors.get(Channels.DEFAULT);
+        // The remaining count comes at the end of the page, so the first page is held back until we know whether
+        // the gap is worth pulling; but only up to the number of messages a skip would show anyway
+        HoldBack firstPage = new HoldBack(this::processMessage, IrcConfig.getCatchUpLatestCount());
+        ReceivePage page = ircClient.getMessages(cursor.timestamp(), cursor.id(), channels, null, firstPage);
+        if (!report(page)) {
+            return -1;
+        }
+        cursors.markFetched();
+        if (page.hasMore() && page.remaining() > IrcConfig.getCatchUpMaxMessages()) {
+            // Whatever was already passed on stays, the skip covers the rest of the gap
+            int latest = skipToLatest(page.count() + page.remaining() - firstPage.released);
+            return latest < 0 ? latest : latest + firstPage.released;
+        }
+        firstPage.release();
+
+        int received = page.count();
+        int pages = 1;
+        while (running && page.hasMore()) {
+            if (page.count() == 0) {
+                IrcMod.LOGGER.warn("IRC worker returned an empty page with a continuation, stopping catch-up");
+                break;
+            }
+            cursor = cursors.get(Channels.DEFAULT);
+            page = ircClient.getMessages(cursor.timestamp(), cursor.id(), channels, page.continuation(),
+                    this::processMessage);
+            if (!report(page)) {
+                // The next poll or reconnect resumes from the cursor
+                break;
+            }
+            received += page.count();
+            pages++;
+        }
+        if (pages > 1) {
+            IrcMod.LOGGER.info("Caught up on {} IRC messages in {} pages", received, pages);
+        }
+        return received;
+    }
+
+    // Holds messages back up to a limit, then passes them and everything after on as they arrive
+    private static final class HoldBack implements Consumer<IrcMessage> {
+        private final Consumer<IrcMessage> target;
+        private final int limit;
+        private final List<IrcMessage> held = new ArrayList<>();
+        private int released;
+
+        HoldBack(Consumer<IrcMessage> target, int limit) {
+            this.target = target;
+            this.limit = limit;
+        }
 
-            if (!json.has("messages") || !json.get("messages").isJsonArray()) {
-                IrcMod.LOGGER.warn("Response missing messages array: {}", response);
+        @Override
+        public void accept(IrcMessage message) {
+            if (released > 0) {
+                target.accept(message);
+                released++;
                 return;
             }
+            held.add(message);
+            if (held.size() > limit) {
+                release();
+            }
+        }
 
-            JsonArray messages = json.getAsJsonArray("messages");
-            String currentSessionId = ircClient.getSessionId();
+        void release() {
+            released += held.size();
+            held.forEach(target);
+            held.clear();
+        }
+    }
 
-            IrcMod.LOGGER.debug("Processing {} messages, current sessionId: {}", messages.size(), currentSessionId);
+    private int skipToLatest(long backlog) {
+        ReceivePage page = ircClient.getLatestMessages(IrcConfig.getCatchUpLatestCount(), cursors.vector(true),
+                this::processMessage);
+        if (!report(page)) {
+            return -1;
+        }
+        cursors.markFetched();
+        long skipped = Math.max(0, backlog - page.count());
+        IrcMod.LOGGER.info("IRC backlog of {} messages is too large, skipped {} and showed the latest {}", backlog,
+                skipped, page.count());
+        inbox.offerSkippedBacklog(skipped);
+        return page.count();
+    }
 
-            for (JsonElement element : messages) {
-                JsonObject message = element.getAsJsonObject();
-                long timestamp = message.get("timestamp").getAsLong();
+    // Replies usually follow shortly after the local player sent something
+    public void onLocalSend() {
+        pollScheduler.onActivity();
+    }
 
-                // Always update lastTimestamp to the highest timestamp we've seen
-                // This ensures we don't miss messages even if they arrive out of order
-                if (timestamp > lastTimestamp) {
-                    lastTimestamp = timestamp;
-                }
+    // New channels are fetched from the next poll on, or after the stream reconnected
+    public boolean join(String channel) {
+        boolean joined = cursors.join(channel);
+        cursors.setActive(channel);
+        inbox.switchTo(channel);
+        if (joined) {
+            channelsChanged();
+        }
+        return joined;
+    }
 
-                String player = message.get("player").getAsString();
-                String msg = message.get("message").getAsString();
-                String sessionId = message.has("sessionId") ? message.get("sessionId").getAsString() : "";
+    public boolean part(String channel) {
+        if (!cursors.part(channel)) {
+            return false;
+        }
+        inbox.forget(channel);
+        inbox.switchTo(cursors.getActive());
+        channelsChanged();
+        return true;
+    }
 
-                IrcMod.LOGGER.debug("Displaying message from {} (sessionId: {}): {}", player, sessionId, msg);
-                displayMessage(player, msg);
-            }
-        } catch (Exception e) {
-            IrcMod.LOGGER.error("Error processing messages", e);
+    public boolean switchTo(String channel) {
+        if (!cursors.setActive(channel)) {
+            return false;
+        }
+        inbox.switchTo(channel);
+        // Fetch the channel right away instead of waiting for its background refresh
+        pollScheduler.onActivity();
+        return true;
+    }
+
+    public ChannelCursors getCursors() {
+        return cursors;
+    }
+
+    private void channelsChanged() {
+        List<String> named = new ArrayList<>(cursors.getChannels());
+        named.remove(Channels.DEFAULT);
+        IrcConfig.setChannels(named);
+        if (streamTask != null && !streamTask.isDone()) {
+            ircClient.closeStream();
+        } else {
+            pollScheduler.onActivity();
+        }
+    }
+
+    public long getPollIntervalMs() {
+        return pollScheduler.getCurrentIntervalMs();
+    }
+
+    // Why receives are held back, if they are, for %irc stats
+    public String getHealth() {
+        if (!verified) {
+            return "waiting for verification";
+        }
+        CircuitBreaker.State state = breaker.getState();
+        if (state == CircuitBreaker.State.OPEN) {
+            return "backing off, next attempt in " + breaker.getRemainingOpenMs() + " ms";
+        }
+        return state == CircuitBreaker.State.HALF_OPEN ? "probing" : "ok";
+    }
+
+    public void stop() {
+        running = false;
+        pollScheduler.stop();
+        ircClient.closeStream();
+        if (streamTask != null) {
+            streamTask.cancel(true);
+            streamWatchdog.cancel(false);
+        }
+        if (journal != null) {
+            journalCheckpoint.cancel(false);
+            journal.checkpoint();
         }
+        IrcMod.LOGGER.info("Message receiver stopped");
     }
 
-    private void displayMessage(String player, String message) {
-        MinecraftClient client = MinecraftClient.getInstance();
-        if (client.player != null) {
-            client.execute(() -> {
-                client.player.sendMessage(
-                        Text.literal("§9[IRC] §b" + player + "§r: " + message),
-                        false);
-            });
+    private void processMessage(IrcMessage message) {
+        // Always move the channel's cursor to the highest (timestamp, id) we've seen
+        // This ensures we don't miss messages even if they arrive out of order
+        // Messages of channels that are not joined are dropped before their id is remembered, so they still
+        // show up if the channel is joined and fetched later
+        if (!cursors.advance(message.channel(), message.timestamp(), message.id())) {
+            IrcMod.LOGGER.debug("Dropping message {} for {}, which is not joined", message.id(), message.channel());
+            return;
+        }
+
+        // Retries and overlapping responses can deliver the same message twice
+        if (!recentIds.add(message.id())) {
+            DUPLICATES.increment();
+            IrcMod.LOGGER.debug("Skipping duplicate message {} from {}", message.id(), message.player());
+            return;
+        }
+
+        if (journal != null) {
+            journal.append(message);
+        }
+
+        RECEIVED.increment();
+        if (IrcMod.LOGGER.isDebugEnabled() && QUEUED_LOG.sample()) {
+            IrcMod.LOGGER.debug("Queued message from {} (sessionId: {}): {}", message.player(),
+                    message.sessionId(), LogSampler.abbreviate(message.message()));
+        }
+        inbox.offer(message);
+        for (Consumer<IrcMessage> listener : listeners) {
+            listener.accept(message);
         }
     }
+
+    // Called on a network thread for every new message, e.g. by the load generator to measure delivery latency
+    public void addListener(Consumer<IrcMessage> listener) {
+        listeners.add(listener);
+    }
+
+    public MessageJournal getJournal() {
+        return journal;
+    }
+
+    public ChatInbox getInbox() {
+        return inbox;
+    }
 }
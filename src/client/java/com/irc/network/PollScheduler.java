@@ -0,0 +1,88 @@
+package com.irc.network;
+
+import com.irc.concurrent.ModExecutor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Re-arms the poll after every run: the fastest interval on traffic, backing off on idle polls, always jittered
+// so clients that started together drift apart
+public class PollScheduler {
+    private static final double BACKOFF_FACTOR = 1.5;
+    private static final double JITTER = 0.2;
+
+    private final ModExecutor executor;
+    private final Runnable poll;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private volatile long currentIntervalMs;
+    private ScheduledFuture<?> nextPoll;
+    private long nextPollAt;
+    private boolean polling;
+    private boolean running;
+
+    public PollScheduler(ModExecutor executor, Runnable poll, long minIntervalMs, long maxIntervalMs) {
+        this.executor = executor;
+        this.poll = poll;
+        this.minIntervalMs = Math.max(100, minIntervalMs);
+        this.maxIntervalMs = Math.max(this.minIntervalMs, maxIntervalMs);
+        this.currentIntervalMs = this.minIntervalMs;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        schedule(currentIntervalMs);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+        }
+    }
+
+    // Pulls the next poll forward if it was scheduled further out
+    public synchronized void onActivity() {
+        currentIntervalMs = minIntervalMs;
+        // A poll in progress re-arms itself with the new interval when it finishes
+        if (running && !polling && nextPoll != null && nextPollAt - System.currentTimeMillis() > minIntervalMs
+                && nextPoll.cancel(false)) {
+            schedule(minIntervalMs);
+        }
+    }
+
+    public void onIdle() {
+        currentIntervalMs = Math.min(maxIntervalMs, (long) (currentIntervalMs * BACKOFF_FACTOR));
+    }
+
+    public long getCurrentIntervalMs() {
+        return currentIntervalMs;
+    }
+
+    private void run() {
+        synchronized (this) {
+            polling = true;
+        }
+        try {
+            poll.run();
+        } finally {
+            synchronized (this) {
+                polling = false;
+                if (running) {
+                    schedule(currentIntervalMs);
+                }
+            }
+        }
+    }
+
+    private void schedule(long intervalMs) {
+        double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        long delay = (long) (intervalMs * jitter);
+        nextPollAt = System.currentTimeMillis() + delay;
+        nextPoll = executor.schedule(ModExecutor.Scope.CLIENT, this::run, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,59 @@
+package com.irc.benchmark;
+
+import com.irc.chat.ChatFormat;
+import com.irc.network.IrcMessage;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The per-line formatting ChatInbox does on the client thread, structured text against the legacy string.
+// More players than the prefix cache holds; run with -prof gc to compare allocation per line
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatFormatBenchmark {
+    @Param({"40", "1000"})
+    public int players;
+
+    private List<IrcMessage> messages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        messages = Messages.generate(1024, players, new Random(7));
+    }
+
+    @Benchmark
+    public Text format() {
+        IrcMessage message = messages.get(next++ & 1023);
+        return ChatFormat.message(message);
+    }
+
+    @Benchmark
+    public Text legacy() {
+        IrcMessage message = messages.get(next++ & 1023);
+        return Text.literal("§9[IRC] §b" + message.player() + "§r: " + message.message());
+    }
+
+    @Benchmark
+    public Text repeated() {
+        IrcMessage message = messages.get(next++ & 1023);
+        return ChatFormat.repeated(ChatFormat.message(message), 12);
+    }
+}
@@ -0,0 +1,70 @@
+package com.irc.benchmark;
+
+import com.irc.journal.MessageJournal;
+import com.irc.network.IrcMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Appends long enough to rotate segments; appendWithCheckpoint forces a write like MessageReceiver's checkpoint
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageJournalBenchmark {
+    // Appends per forced write
+    @Param({"100", "1000"})
+    public int checkpointEvery;
+
+    private Path directory;
+    private MessageJournal journal;
+    private List<IrcMessage> messages;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("irc-journal-benchmark");
+        journal = MessageJournal.open(directory);
+        messages = Messages.generate(1024, new Random(7));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void append() {
+        journal.append(messages.get(next++ & 1023));
+    }
+
+    @Benchmark
+    public void appendWithCheckpoint() {
+        journal.append(messages.get(next++ & 1023));
+        if (next % checkpointEvery == 0) {
+            journal.checkpoint();
+        }
+    }
+}
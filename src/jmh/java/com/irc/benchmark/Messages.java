@@ -0,0 +1,35 @@
+package com.irc.benchmark;
+
+import com.irc.network.IrcMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+final class Messages {
+    private static final String[] WORDS = {"hey", "anyone", "online", "gg", "the", "server", "is", "lagging",
+            "again", "who", "wants", "to", "play", "skywars", "brb", "lol", "nice", "build"};
+
+    private Messages() {
+    }
+
+    // A few dozen regular players, short messages, timestamps a few seconds apart
+    static List<IrcMessage> generate(int count, Random random) {
+        return generate(count, 40, random);
+    }
+
+    static List<IrcMessage> generate(int count, int players, Random random) {
+        List<IrcMessage> messages = new ArrayList<>(count);
+        long timestamp = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += random.nextInt(5_000);
+            StringBuilder text = new StringBuilder();
+            for (int words = 1 + random.nextInt(12); words > 0; words--) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            messages.add(IrcMessage.of("Player" + random.nextInt(players), text.toString().trim(), timestamp,
+                    "session-" + random.nextInt(players), null));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,95 @@
+package com.irc.benchmark;
+
+import com.irc.chat.RepeatCollapser;
+import com.irc.network.IrcMessage;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One ChatInbox.drain tick through the collapser and its flush, against a 100-line history.
+// Minecraft's wrapping needs a running client and is not measured
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepeatCollapserBenchmark {
+    private static final int HISTORY_SIZE = 100;
+
+    // The default messagesPerTick, and the budget of a client that was told to catch up faster
+    @Param({"5", "50"})
+    public int messagesPerTick;
+
+    // Fraction of messages that repeat the one before
+    @Param({"0", "0.9"})
+    public double repeats;
+
+    private List<IrcMessage> messages;
+    private ChatLines lines;
+    private RepeatCollapser<Text> collapser;
+    private int next;
+
+    // Newest line first, like the HUD history
+    private static final class ChatLines implements RepeatCollapser.Lines<Text> {
+        private final ArrayDeque<Text> history = new ArrayDeque<>(HISTORY_SIZE + 1);
+
+        @Override
+        public Text add(Text text) {
+            history.addFirst(text);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+            return text;
+        }
+
+        @Override
+        public boolean isNewest(Text line) {
+            return history.peekFirst() == line;
+        }
+
+        @Override
+        public Text replaceNewest(Text line, Text text) {
+            history.removeFirst();
+            history.addFirst(text);
+            return text;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(7);
+        List<IrcMessage> distinct = Messages.generate(1024, random);
+        messages = new ArrayList<>(1024);
+        for (IrcMessage message : distinct) {
+            boolean repeat = !messages.isEmpty() && random.nextDouble() < repeats;
+            messages.add(repeat ? messages.get(messages.size() - 1) : message);
+        }
+        lines = new ChatLines();
+        collapser = new RepeatCollapser<>(lines);
+    }
+
+    @Benchmark
+    public int tick() {
+        for (int i = 0; i < messagesPerTick; i++) {
+            collapser.add(messages.get(next++ & 1023));
+        }
+        collapser.flush();
+        return lines.history.size();
+    }
+}
@@ -0,0 +1,76 @@
+package com.irc.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.irc.network.RequestTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// Pre-encoded request templates against a Gson tree per request, the old way
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestPayloadBenchmark {
+    private static final String URL = "https://irc.example.invalid";
+    private static final String SESSION_ID = "5f0c7a8e-3b5d-4c43-9a3e-0d3c1f1b2a77";
+
+    private final Gson gson = new Gson();
+    private RequestTemplate receiveTemplate;
+    private RequestTemplate sendTemplate;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        receiveTemplate = new RequestTemplate(URL, "receive", SESSION_ID, "lastTimestamp", "lastId");
+        sendTemplate = new RequestTemplate(URL, "send", SESSION_ID, "message");
+        timestamp = 1_700_000_000_000L;
+    }
+
+    @Benchmark
+    public HttpRequest receiveUnchangedCursor() {
+        // An idle poll repeats the previous cursor
+        return receiveTemplate.request(timestamp, 42);
+    }
+
+    @Benchmark
+    public HttpRequest receiveNewCursor() {
+        return receiveTemplate.request(++timestamp, 42);
+    }
+
+    @Benchmark
+    public HttpRequest receiveGsonBaseline() {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("action", "receive");
+        payload.addProperty("sessionId", SESSION_ID);
+        payload.addProperty("token", "");
+        payload.addProperty("lastTimestamp", ++timestamp);
+        payload.addProperty("lastId", 42);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(URL + "/api/irc"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(payload)))
+                .timeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    @Benchmark
+    public HttpRequest send() {
+        return sendTemplate.request("Anyone up for a round of \"bed wars\" on the usual server?");
+    }
+}
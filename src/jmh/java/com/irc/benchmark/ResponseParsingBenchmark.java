@@ -0,0 +1,116 @@
+package com.irc.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.irc.network.BinaryMessageCodec;
+import com.irc.network.IrcMessage;
+import com.irc.network.JsonMessageReader;
+import com.irc.network.RecentIdSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a receive response, JSON against binary frames, from a quiet poll to a long catch-up.
+// jsonTree is the old decoding: the whole body as a string, then a Gson tree
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+    private static final Gson GSON = new Gson();
+
+    @Param({"1", "100", "10000"})
+    public int backlog;
+
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<IrcMessage> messages = Messages.generate(backlog, new Random(backlog));
+
+        JsonArray array = new JsonArray();
+        for (IrcMessage message : messages) {
+            JsonObject object = new JsonObject();
+            object.addProperty("player", message.player());
+            object.addProperty("message", message.message());
+            object.addProperty("timestamp", message.timestamp());
+            object.addProperty("sessionId", message.sessionId());
+            object.addProperty("id", Long.toString(message.id()));
+            array.add(object);
+        }
+        JsonObject response = new JsonObject();
+        response.add("messages", array);
+        json = response.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+        for (IrcMessage message : messages) {
+            encoder.write(message, out);
+        }
+        binary = out.toByteArray();
+    }
+
+    @Benchmark
+    public int json(Blackhole blackhole) throws IOException {
+        return JsonMessageReader.readResponse(
+                new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8), blackhole::consume)
+                .count();
+    }
+
+    @Benchmark
+    public int jsonTree(Blackhole blackhole) {
+        JsonObject response = GSON.fromJson(new String(json, StandardCharsets.UTF_8), JsonObject.class);
+        JsonArray messages = response.getAsJsonArray("messages");
+        for (JsonElement element : messages) {
+            JsonObject message = element.getAsJsonObject();
+            blackhole.consume(IrcMessage.of(message.get("player").getAsString(),
+                    message.get("message").getAsString(), message.get("timestamp").getAsLong(),
+                    message.has("sessionId") ? message.get("sessionId").getAsString() : "",
+                    message.get("id").getAsString()));
+        }
+        return messages.size();
+    }
+
+    @Benchmark
+    public int binary(Blackhole blackhole) throws IOException {
+        return new BinaryMessageCodec.Decoder().readAll(new ByteArrayInputStream(binary), blackhole::consume);
+    }
+
+    @Benchmark
+    public int jsonWithDeduplication() throws IOException {
+        // What every received message goes through before it reaches the journal and the inbox
+        RecentIdSet recentIds = new RecentIdSet(4096);
+        List<IrcMessage> accepted = new ArrayList<>(backlog);
+        JsonMessageReader.readResponse(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8),
+                message -> {
+                    if (recentIds.add(message.id())) {
+                        accepted.add(message);
+                    }
+                });
+        return accepted.size();
+    }
+}
@@ -0,0 +1,296 @@
+package com.irc.loadtest;
+
+import com.irc.IrcMod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// com.sun.net.httpserver cannot switch protocols, so connections are accepted here first: WebSocket upgrades
+// are answered directly, everything else is piped to the HTTP server with Connection: close
+final class FrontDoor implements AutoCloseable {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(Connection connection) throws IOException;
+    }
+
+    private final ServerSocket serverSocket;
+    private final InetSocketAddress backend;
+    private final String webSocketPath;
+    private final Handler handler;
+    private final ExecutorService executor;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    FrontDoor(int port, InetSocketAddress backend, String webSocketPath, Handler handler) throws IOException {
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.backend = backend;
+        this.webSocketPath = webSocketPath;
+        this.handler = handler;
+        // Platform threads: the worker's virtual threads block inside synchronized blocks and can pin every
+        // carrier, and the pipes must keep moving for those blocks to finish
+        this.executor = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().name("Stand-in front door #", 1)
+                .factory());
+        executor.execute(this::accept);
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void dropWebSockets() {
+        connections.forEach(Connection::abort);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> route(socket));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void route(Socket socket) {
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            byte[] head = readHead(in);
+            Map<String, String> headers = new HashMap<>();
+            String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length > 1 && requestLine[1].equals(webSocketPath)
+                    && "websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                upgrade(socket, headers.get("sec-websocket-key"));
+            } else {
+                pipe(socket, closingHead(lines));
+            }
+        } catch (IOException e) {
+            IrcMod.LOGGER.debug("Stand-in worker connection ended: {}", e.toString());
+        }
+    }
+
+    private void upgrade(Socket socket, String key) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        if (key == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            return;
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        Connection connection = new Connection(socket);
+        connections.add(connection);
+        try {
+            handler.handle(connection);
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private void pipe(Socket socket, byte[] head) throws IOException {
+        try (Socket upstream = new Socket(backend.getAddress(), backend.getPort())) {
+            upstream.getOutputStream().write(head);
+            executor.execute(() -> {
+                try {
+                    socket.getInputStream().transferTo(upstream.getOutputStream());
+                } catch (IOException e) {
+                    // Either side closed
+                } finally {
+                    try {
+                        upstream.shutdownOutput();
+                    } catch (IOException e) {
+                        // Already closed
+                    }
+                }
+            });
+            upstream.getInputStream().transferTo(socket.getOutputStream());
+        }
+    }
+
+    // The request head without its connection headers, asking the server to close after the response
+    private static byte[] closingHead(String[] lines) {
+        StringBuilder head = new StringBuilder(lines[0]).append("\r\n");
+        for (int i = 1; i < lines.length; i++) {
+            String name = lines[i].toLowerCase();
+            if (!name.startsWith("connection:") && !name.startsWith("keep-alive:") && !name.startsWith("upgrade:")) {
+                head.append(lines[i]).append("\r\n");
+            }
+        }
+        return head.append("Connection: close\r\n\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Reads up to and including the blank line that ends the request head
+    private static byte[] readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed before the request head ended");
+            }
+            head.write(b);
+            matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+            if (head.size() > MAX_HEAD_SIZE) {
+                throw new IOException("Request head too large");
+            }
+        }
+        return head.toByteArray();
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+        dropWebSockets();
+        executor.shutdownNow();
+    }
+
+    // The server end of a WebSocket, text frames only
+    static final class Connection {
+        private static final int OPCODE_CONTINUATION = 0;
+        private static final int OPCODE_TEXT = 1;
+        private static final int OPCODE_CLOSE = 8;
+        private static final int OPCODE_PING = 9;
+        private static final int OPCODE_PONG = 10;
+
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        // Null once the client closed the connection
+        String readText() throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return null;
+                }
+                int second = readByte();
+                long length = second & 0x7F;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("WebSocket frame too large: " + length);
+                }
+                byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : null;
+                byte[] payload = in.readNBytes((int) length);
+                if (payload.length < length) {
+                    throw new EOFException("Truncated WebSocket frame");
+                }
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i % 4];
+                    }
+                }
+
+                int opcode = first & 0x0F;
+                if (opcode == OPCODE_CLOSE) {
+                    writeFrame(OPCODE_CLOSE, payload);
+                    return null;
+                } else if (opcode == OPCODE_PING) {
+                    writeFrame(OPCODE_PONG, payload);
+                } else if (opcode == OPCODE_TEXT || opcode == OPCODE_CONTINUATION) {
+                    message.write(payload);
+                    if ((first & 0x80) != 0) {
+                        return message.toString(StandardCharsets.UTF_8);
+                    }
+                }
+            }
+        }
+
+        void sendText(String text) throws IOException {
+            writeFrame(OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void abort() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated WebSocket frame");
+            }
+            return b;
+        }
+
+        private synchronized void writeFrame(int opcode, byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else if (payload.length < 65536) {
+                frame.write(126);
+                frame.write(payload.length >>> 8);
+                frame.write(payload.length & 0xFF);
+            } else {
+                frame.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    frame.write((int) ((long) payload.length >>> shift) & 0xFF);
+                }
+            }
+            frame.write(payload);
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+    }
+}
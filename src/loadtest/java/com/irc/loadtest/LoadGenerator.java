@@ -0,0 +1,240 @@
+package com.irc.loadtest;
+
+import com.google.gson.Gson;
+import com.irc.IrcMod;
+import com.irc.concurrent.ModExecutor;
+import com.irc.config.IrcConfig;
+import com.irc.journal.Outbox;
+import com.irc.metrics.Histogram;
+import com.irc.metrics.Metrics;
+import com.irc.network.HttpTransport;
+import com.irc.network.IrcClient;
+import com.irc.network.IrcMessage;
+import com.irc.network.MessageReceiver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless clients against a worker, reporting end-to-end delivery latency; every message carries its send time.
+// All clients share one HttpTransport, so keep the client count low in poll mode
+public final class LoadGenerator {
+    private static final String MARKER = "lt ";
+    private static final LongAdder DELIVERED = new LongAdder();
+    // One per mode, so a comparison keeps the runs apart
+    private static volatile Histogram delivery;
+
+    private record Options(int clients, double rate, long durationSeconds, long drainSeconds, String mode,
+                           String url, int preload, boolean outbox, StandInWorker.Faults faults) {
+    }
+
+    private record Result(String mode, long expected, long delivered, Histogram.Snapshot latency,
+                          long requests, double elapsedSeconds) {
+    }
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = parse(args);
+        List<String> modes = options.mode().equals("compare") ? List.of("stream", "poll") : List.of(options.mode());
+        List<Result> results = new ArrayList<>();
+        for (String mode : modes) {
+            results.add(run(options, mode));
+        }
+        if (results.size() > 1) {
+            compare(results);
+        }
+        ModExecutor.get().shutdown();
+    }
+
+    private static Result run(Options options, String mode) throws Exception {
+        delivery = Metrics.histogram("loadtest.delivery." + mode, "us");
+        DELIVERED.reset();
+        long requestsBefore = HttpTransport.get().getStats().requests();
+        StandInWorker worker = null;
+        String url = options.url();
+        if (url == null) {
+            worker = new StandInWorker(0, StandInWorker.DEFAULT_PAGE_SIZE);
+            worker.preload(options.preload());
+            url = worker.getUrl();
+        }
+
+        Path directory = configure(url, mode);
+        List<IrcClient> clients = new ArrayList<>();
+        List<MessageReceiver> receivers = new ArrayList<>();
+        for (int i = 0; i < options.clients(); i++) {
+            IrcClient client = new IrcClient(url,
+                    options.outbox() ? Outbox.open(directory.resolve("outbox-" + i)) : null);
+            MessageReceiver receiver = new MessageReceiver(client, null);
+            receiver.addListener(LoadGenerator::onMessage);
+            receiver.start();
+            clients.add(client);
+            receivers.add(receiver);
+        }
+        // Faults start after the clients are connected, so the catch-up is not part of the measurement
+        if (worker != null) {
+            worker.setFaults(options.faults());
+        }
+
+        IrcMod.LOGGER.info("Load test: {} clients, {} msgs/s for {} s in {} mode against {}", options.clients(),
+                options.rate(), options.durationSeconds(), mode, url);
+        long start = System.nanoTime();
+        long sent = send(clients, options);
+        long sendNanos = System.nanoTime() - start;
+
+        // Let the last messages arrive before the clients go away
+        long expected = sent * options.clients();
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainSeconds());
+        while (DELIVERED.sum() < expected && System.nanoTime() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        receivers.forEach(MessageReceiver::stop);
+        clients.forEach(IrcClient::shutdown);
+        report(options, sent, expected, sendNanos, elapsedNanos, worker);
+        if (worker != null) {
+            worker.close();
+        }
+        return new Result(mode, expected, DELIVERED.sum(), delivery.snapshot(),
+                HttpTransport.get().getStats().requests() - requestsBefore, elapsedNanos / 1e9);
+    }
+
+    // Returns the temporary directory the config was written to
+    private static Path configure(String url, String mode) throws IOException {
+        Path directory = Files.createTempDirectory("irc-loadtest");
+        Path configFile = directory.resolve("irc-config.json");
+        IrcConfig.ConfigData config = new IrcConfig.ConfigData();
+        config.workersUrl = url;
+        config.discordToken = "LoadTest";
+        config.streamingEnabled = mode.equals("stream") || mode.equals("websocket");
+        config.webSocketEnabled = mode.equals("websocket");
+        config.journalEnabled = false;
+        config.metricsDumpIntervalSeconds = 0;
+        Files.writeString(configFile, new Gson().toJson(config), StandardCharsets.UTF_8);
+        IrcConfig.useConfigFile(configFile);
+        IrcConfig.load();
+        return directory;
+    }
+
+    // Paces sends by absolute deadlines so a slow iteration does not lower the overall rate
+    private static long send(List<IrcClient> clients, Options options) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate());
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        long next = System.nanoTime();
+        long sent = 0;
+        while (next < end) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            IrcClient client = clients.get((int) (sent % clients.size()));
+            if (client.sendMessage(MARKER + System.nanoTime())) {
+                sent++;
+            }
+            next += intervalNanos;
+        }
+        return sent;
+    }
+
+    private static void onMessage(IrcMessage message) {
+        String text = message.message();
+        if (!text.startsWith(MARKER)) {
+            return;
+        }
+        try {
+            delivery.recordSince(Long.parseLong(text.substring(MARKER.length())));
+            DELIVERED.increment();
+        } catch (NumberFormatException e) {
+            // Someone else's message that happens to start with the marker
+        }
+    }
+
+    private static void report(Options options, long sent, long expected, long sendNanos, long elapsedNanos,
+                               StandInWorker worker) {
+        double sendSeconds = sendNanos / 1e9;
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long delivered = DELIVERED.sum();
+        Histogram.Snapshot latency = delivery.snapshot();
+        HttpTransport.Stats stats = HttpTransport.get().getStats();
+
+        System.out.printf("%nSent %d messages in %.1f s (%.1f msgs/s)%n", sent, sendSeconds, sent / sendSeconds);
+        System.out.printf("Delivered %d of %d (%.2f%%) to %d clients%n", delivered, expected,
+                expected > 0 ? 100.0 * delivered / expected : 0, options.clients());
+        System.out.printf("Delivery latency: p50=%.1f p90=%.1f p99=%.1f max=%.1f ms (mean %.1f ms)%n",
+                latency.p50() / 1000.0, latency.p90() / 1000.0, latency.p99() / 1000.0, latency.max() / 1000.0,
+                latency.mean() / 1000.0);
+        System.out.printf("Client requests: %d in %.1f s (%.1f req/s), %d failed; %s%n", stats.requests(),
+                elapsedSeconds, stats.requests() / elapsedSeconds, stats.failures(), stats);
+        if (worker != null) {
+            System.out.printf("Worker stored %d messages%n", worker.getMessageCount());
+            Map<String, Long> counts = worker.getRequestCounts();
+            counts.forEach((action, count) -> System.out.printf("Worker %s: %d (%.1f/s)%n", action, count,
+                    count / elapsedSeconds));
+        }
+        Metrics.report().forEach(System.out::println);
+    }
+
+    private static void compare(List<Result> results) {
+        System.out.printf("%n%-10s %10s %10s %10s %10s %10s %10s%n", "mode", "delivered", "p50 ms", "p90 ms",
+                "p99 ms", "max ms", "req/s");
+        for (Result result : results) {
+            Histogram.Snapshot latency = result.latency();
+            System.out.printf("%-10s %9.2f%% %10.1f %10.1f %10.1f %10.1f %10.1f%n", result.mode(),
+                    result.expected() > 0 ? 100.0 * result.delivered() / result.expected() : 0,
+                    latency.p50() / 1000.0, latency.p90() / 1000.0, latency.p99() / 1000.0, latency.max() / 1000.0,
+                    result.requests() / result.elapsedSeconds());
+        }
+    }
+
+    private static Options parse(String[] args) {
+        int clients = 4;
+        double rate = 20;
+        long duration = 30;
+        long drain = 10;
+        String mode = "stream";
+        String url = null;
+        int preload = 0;
+        long latency = 0;
+        long jitter = 0;
+        double errors = 0;
+        double unauthorized = 0;
+        double throttled = 0;
+        double drops = 0;
+        boolean outbox = false;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--clients" -> clients = Integer.parseInt(value);
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--duration" -> duration = Long.parseLong(value);
+                case "--drain" -> drain = Long.parseLong(value);
+                case "--mode" -> mode = value;
+                case "--url" -> url = value;
+                case "--preload" -> preload = Integer.parseInt(value);
+                case "--latency" -> latency = Long.parseLong(value);
+                case "--jitter" -> jitter = Long.parseLong(value);
+                case "--errors" -> errors = Double.parseDouble(value);
+                case "--unauthorized" -> unauthorized = Double.parseDouble(value);
+                case "--throttled" -> throttled = Double.parseDouble(value);
+                case "--drops" -> drops = Double.parseDouble(value);
+                case "--outbox" -> outbox = Boolean.parseBoolean(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (!mode.equals("poll") && !mode.equals("stream") && !mode.equals("websocket") && !mode.equals("compare")) {
+            throw new IllegalArgumentException("--mode must be poll, stream, websocket or compare");
+        }
+        if (clients < 1 || rate <= 0) {
+            throw new IllegalArgumentException("--clients and --rate must be positive");
+        }
+        return new Options(clients, rate, duration, drain, mode, url, preload, outbox,
+                new StandInWorker.Faults(latency, jitter, errors, unauthorized, throttled, drops));
+    }
+}
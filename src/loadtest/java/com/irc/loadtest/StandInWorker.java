@@ -0,0 +1,589 @@
+package com.irc.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.irc.IrcMod;
+import com.irc.network.BinaryMessageCodec;
+import com.irc.network.ChannelCursors;
+import com.irc.network.Channels;
+import com.irc.network.IrcMessage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+// In-process stand-in for the Cloudflare worker with injectable faults. Tokens are only checked for presence and
+// double as the player name
+public class StandInWorker implements AutoCloseable {
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    private static final long STREAM_HEARTBEAT_MS = 15_000;
+    private static final long VERIFICATION_TTL_MS = 60 * 60 * 1000L;
+
+    private final HttpServer server;
+    private final FrontDoor frontDoor;
+    private final ExecutorService executor;
+    private final Gson gson = new Gson();
+    private final int pageSize;
+    // Ordered by (timestamp, id) across all channels, appended under the lock; streams wait on it for news
+    private final List<IrcMessage> messages = new ArrayList<>();
+    private final Map<String, LongAdder> requests = new ConcurrentSkipListMap<>();
+    // Idempotency keys of all stored messages, guarded by the lock like the messages
+    private final Set<String> seenKeys = new HashSet<>();
+    private long nextId = 1;
+    private long lastTimestamp;
+    private volatile Faults faults = Faults.NONE;
+    private volatile boolean running = true;
+
+    // dropRate drops the WebSocket after storing a sent message but before acking it
+    public record Faults(long latencyMs, long jitterMs, double errorRate, double unauthorizedRate,
+                         double throttledRate, double dropRate) {
+        public static final Faults NONE = new Faults(0, 0, 0, 0, 0, 0);
+    }
+
+    // Port 0 picks any free port
+    public StandInWorker(int port, int pageSize) throws IOException {
+        this.pageSize = pageSize;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/irc", this::handleIrc);
+        server.createContext("/api/discord/verify", this::handleVerify);
+        server.createContext("/api/discord/authurl", this::handleAuthUrl);
+        server.createContext("/api/discord/callback", this::handleCallback);
+        server.start();
+        this.frontDoor = new FrontDoor(port, server.getAddress(), "/api/irc/ws", this::handleWebSocket);
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + frontDoor.getPort();
+    }
+
+    // Without a close frame, like a lost network connection
+    public void dropWebSockets() {
+        frontDoor.dropWebSockets();
+    }
+
+    public void setFaults(Faults faults) {
+        this.faults = faults;
+    }
+
+    // Call before any message is sent
+    public void preload(int count) {
+        preload(count, 1);
+    }
+
+    // Several messages per millisecond, so page boundaries fall between messages that share a timestamp
+    public synchronized void preload(int count, int perMillisecond) {
+        long start = System.currentTimeMillis() - 60_000 - count;
+        for (int i = 0; i < count; i++) {
+            append("Backlog", "preloaded message " + i, "preload", Channels.DEFAULT, start + i / perMillisecond);
+        }
+    }
+
+    public synchronized int getMessageCount() {
+        return messages.size();
+    }
+
+    // By action, including the requests answered with an injected fault
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        requests.forEach((action, count) -> counts.put(action, count.sum()));
+        return counts;
+    }
+
+    private void handleIrc(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject body = readBody(exchange);
+            String action = body != null && body.has("action") ? body.get("action").getAsString() : "unknown";
+            count(action);
+            if (injectFault(exchange, true) || !checkToken(exchange, body)) {
+                return;
+            }
+
+            switch (action) {
+                case "send" -> {
+                    String message = body.has("message") ? body.get("message").getAsString() : "";
+                    List<String> keys = new ArrayList<>();
+                    keys.add(body.has("key") ? body.get("key").getAsString() : null);
+                    appendLive(body.get("token").getAsString(), List.of(message), keys, sessionId(body),
+                            channel(body));
+                    sendJson(exchange, 200, "{\"success\":true}");
+                }
+                case "sendBatch" -> {
+                    List<String> batch = new ArrayList<>();
+                    if (body.has("messages") && body.get("messages").isJsonArray()) {
+                        body.getAsJsonArray("messages").forEach(element -> batch.add(element.getAsString()));
+                    }
+                    List<String> keys = new ArrayList<>();
+                    if (body.has("keys") && body.get("keys").isJsonArray()) {
+                        body.getAsJsonArray("keys").forEach(element -> keys.add(element.getAsString()));
+                    }
+                    appendLive(body.get("token").getAsString(), batch, keys, sessionId(body), channel(body));
+                    sendJson(exchange, 200, "{\"success\":true,\"count\":" + batch.size() + "}");
+                }
+                case "receive" -> receive(exchange, body);
+                case "stream" -> stream(exchange, body);
+                default -> sendJson(exchange, 400, "{\"error\":\"Unknown action\"}");
+            }
+        } catch (IOException e) {
+            // Clients close streams and time out requests, neither is worth more than a debug line
+            IrcMod.LOGGER.debug("Stand-in worker request ended: {}", e.toString());
+        }
+    }
+
+    private void receive(HttpExchange exchange, JsonObject body) throws IOException {
+        Map<String, ChannelCursors.Cursor> subscriptions = subscriptions(body);
+        List<IrcMessage> page = new ArrayList<>();
+        String continuation = null;
+        long remaining = 0;
+        synchronized (this) {
+            if (body.has("latest")) {
+                // The newest messages of each requested channel
+                int latest = Math.max(0, body.get("latest").getAsInt());
+                Map<String, Integer> counts = new HashMap<>();
+                for (int i = messages.size() - 1; i >= 0; i--) {
+                    IrcMessage message = messages.get(i);
+                    if (subscriptions.containsKey(message.channel())
+                            && counts.merge(message.channel(), 1, Integer::sum) <= latest) {
+                        page.add(message);
+                    }
+                }
+                Collections.reverse(page);
+            } else {
+                int position = body.has("continuation") && !body.get("continuation").isJsonNull()
+                        ? parseContinuation(body.get("continuation").getAsString())
+                        : firstIndex(subscriptions);
+                for (; position < messages.size() && page.size() < pageSize; position++) {
+                    if (isWanted(messages.get(position), subscriptions)) {
+                        page.add(messages.get(position));
+                    }
+                }
+                for (int i = position; i < messages.size(); i++) {
+                    if (isWanted(messages.get(i), subscriptions)) {
+                        remaining++;
+                    }
+                }
+                if (remaining > 0) {
+                    continuation = "p" + position;
+                }
+            }
+        }
+
+        if (accepts(exchange, BinaryMessageCodec.CONTENT_TYPE)) {
+            exchange.getResponseHeaders().set("Content-Type", BinaryMessageCodec.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+            if (continuation != null) {
+                encoder.writeMeta(Map.of("continuation", continuation, "remaining", Long.toString(remaining)), out);
+            }
+            for (IrcMessage message : page) {
+                encoder.write(message, out);
+            }
+            return;
+        }
+
+        JsonObject response = new JsonObject();
+        response.add("messages", gson.toJsonTree(page.stream().map(StandInWorker::toJson).toList()));
+        if (continuation != null) {
+            response.addProperty("continuation", continuation);
+            response.addProperty("remaining", remaining);
+        }
+        sendJson(exchange, 200, gson.toJson(response));
+    }
+
+    // Holds the exchange open and pushes every new message until the client disconnects or the worker stops
+    private void stream(HttpExchange exchange, JsonObject body) throws IOException {
+        boolean binary = accepts(exchange, BinaryMessageCodec.CONTENT_TYPE);
+        exchange.getResponseHeaders().set("Content-Type", binary ? BinaryMessageCodec.CONTENT_TYPE
+                : "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+
+        Map<String, ChannelCursors.Cursor> subscriptions = subscriptions(body);
+        int position;
+        synchronized (this) {
+            position = firstIndex(subscriptions);
+        }
+        List<IrcMessage> batch = new ArrayList<>();
+        while (running) {
+            batch.clear();
+            try {
+                position = awaitMessages(position, subscriptions, batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (binary) {
+                if (batch.isEmpty()) {
+                    encoder.writeHeartbeat(out);
+                }
+                for (IrcMessage message : batch) {
+                    encoder.write(message, out);
+                }
+            } else if (batch.isEmpty()) {
+                // Also sent when only other channels had news
+                out.write(":\n\n".getBytes(StandardCharsets.UTF_8));
+            } else {
+                JsonObject event = new JsonObject();
+                event.add("messages", gson.toJsonTree(batch.stream().map(StandInWorker::toJson).toList()));
+                out.write(("data: " + gson.toJson(event) + "\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        }
+    }
+
+    // Waits up to a heartbeat interval for messages after position and adds the wanted ones to batch. Returns
+    // the position after them.
+    private synchronized int awaitMessages(int position, Map<String, ChannelCursors.Cursor> subscriptions,
+                                           List<IrcMessage> batch) throws InterruptedException {
+        if (position >= messages.size()) {
+            wait(STREAM_HEARTBEAT_MS);
+        }
+        for (; position < messages.size(); position++) {
+            if (isWanted(messages.get(position), subscriptions)) {
+                batch.add(messages.get(position));
+            }
+        }
+        return position;
+    }
+
+    // A hello frame with the token and cursors, then send frames that are acked by id. New messages are pushed
+    // as {"messages":[...]} frames, the same events the HTTP stream sends.
+    private void handleWebSocket(FrontDoor.Connection connection) throws IOException {
+        count("websocket");
+        JsonObject hello = parse(connection.readText());
+        if (hello == null || !"hello".equals(getString(hello, "type")) || getString(hello, "token").isEmpty()) {
+            connection.sendText("{\"type\":\"error\",\"error\":\"Expected hello with a token\"}");
+            return;
+        }
+        String player = getString(hello, "token");
+        String sessionId = sessionId(hello);
+        Map<String, ChannelCursors.Cursor> subscriptions = subscriptions(hello);
+        Future<?> pusher = executor.submit(() -> push(connection, subscriptions));
+        try {
+            String text;
+            while ((text = connection.readText()) != null) {
+                JsonObject frame = parse(text);
+                if (frame == null || !"send".equals(getString(frame, "type"))) {
+                    continue;
+                }
+                count("ws.send");
+                Faults current = faults;
+                if (current.latencyMs() > 0) {
+                    try {
+                        Thread.sleep(current.latencyMs());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                String key = frame.has("key") ? frame.get("key").getAsString() : null;
+                List<String> keys = new ArrayList<>();
+                keys.add(key);
+                appendLive(player, List.of(getString(frame, "message")), keys, sessionId, channel(frame));
+                if (ThreadLocalRandom.current().nextDouble() < current.dropRate()) {
+                    // The message is stored but the client never hears about it, so it sends it again
+                    count("fault.drop");
+                    connection.abort();
+                    return;
+                }
+                connection.sendText("{\"type\":\"ack\",\"id\":" + frame.get("id").getAsLong() + "}");
+            }
+        } finally {
+            pusher.cancel(true);
+        }
+    }
+
+    private void push(FrontDoor.Connection connection, Map<String, ChannelCursors.Cursor> subscriptions) {
+        int position;
+        synchronized (this) {
+            position = firstIndex(subscriptions);
+        }
+        List<IrcMessage> batch = new ArrayList<>();
+        try {
+            while (running) {
+                batch.clear();
+                position = awaitMessages(position, subscriptions, batch);
+                if (!batch.isEmpty()) {
+                    JsonObject event = new JsonObject();
+                    event.add("messages", gson.toJsonTree(batch.stream().map(StandInWorker::toJson).toList()));
+                    connection.sendText(gson.toJson(event));
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // Connection closed
+        }
+    }
+
+    private void handleVerify(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject body = readBody(exchange);
+            count("verify");
+            if (injectFault(exchange, true) || !checkToken(exchange, body)) {
+                return;
+            }
+            sendJson(exchange, 200, "{\"verified\":true,\"expiresAt\":"
+                    + (System.currentTimeMillis() + VERIFICATION_TTL_MS) + "}");
+        }
+    }
+
+    private void handleAuthUrl(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            count("authurl");
+            if (injectFault(exchange, false)) {
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=3600");
+            sendJson(exchange, 200, "{\"authUrl\":\"" + getUrl() + "/oauth\"}");
+        }
+    }
+
+    private void handleCallback(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonObject body = readBody(exchange);
+            count("exchange");
+            if (injectFault(exchange, false)) {
+                return;
+            }
+            if (body == null || !body.has("code")) {
+                sendJson(exchange, 400, "{\"error\":\"Missing code\"}");
+                return;
+            }
+            JsonObject response = new JsonObject();
+            response.addProperty("token", "standin-" + body.get("code").getAsString());
+            response.addProperty("verified", true);
+            response.addProperty("expiresAt", System.currentTimeMillis() + VERIFICATION_TTL_MS);
+            sendJson(exchange, 200, gson.toJson(response));
+        }
+    }
+
+    // Messages whose idempotency key was seen before are acknowledged again but not stored twice
+    private void appendLive(String player, List<String> texts, List<String> keys, String sessionId,
+                            String channel) {
+        synchronized (this) {
+            // Keep the log ordered even if the clock steps back
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            for (int i = 0; i < texts.size(); i++) {
+                String key = i < keys.size() ? keys.get(i) : null;
+                if (key != null && !seenKeys.add(key)) {
+                    count("duplicate");
+                    continue;
+                }
+                append(player, texts.get(i), sessionId, channel, timestamp);
+            }
+            notifyAll();
+        }
+    }
+
+    // Caller holds the lock
+    private void append(String player, String text, String sessionId, String channel, long timestamp) {
+        messages.add(new IrcMessage(player, text, timestamp, sessionId, nextId++, channel));
+        lastTimestamp = timestamp;
+    }
+
+    // The default channel's cursor comes from lastTimestamp/lastId, named channels from the channels vector
+    private static Map<String, ChannelCursors.Cursor> subscriptions(JsonObject body) {
+        Map<String, ChannelCursors.Cursor> subscriptions = new HashMap<>();
+        subscriptions.put(Channels.DEFAULT,
+                new ChannelCursors.Cursor(getLong(body, "lastTimestamp"), getLong(body, "lastId")));
+        if (body.has("channels") && body.get("channels").isJsonArray()) {
+            for (JsonElement element : body.getAsJsonArray("channels")) {
+                JsonArray entry = element.getAsJsonArray();
+                subscriptions.put(entry.get(0).getAsString(),
+                        new ChannelCursors.Cursor(entry.get(1).getAsLong(), entry.get(2).getAsLong()));
+            }
+        }
+        return subscriptions;
+    }
+
+    private static boolean isWanted(IrcMessage message, Map<String, ChannelCursors.Cursor> subscriptions) {
+        ChannelCursors.Cursor cursor = subscriptions.get(message.channel());
+        return cursor != null && cursor.isBefore(message.timestamp(), message.id());
+    }
+
+    // Index of the first message after the oldest of the cursors; caller holds the lock
+    private int firstIndex(Map<String, ChannelCursors.Cursor> subscriptions) {
+        int first = messages.size();
+        for (ChannelCursors.Cursor cursor : subscriptions.values()) {
+            first = Math.min(first, indexAfter(cursor.timestamp(), cursor.id()));
+        }
+        return first;
+    }
+
+    // Index of the first message after the cursor; caller holds the lock
+    private int indexAfter(long timestamp, long id) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            IrcMessage message = messages.get(middle);
+            if (message.timestamp() < timestamp || (message.timestamp() == timestamp && message.id() <= id)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int parseContinuation(String continuation) {
+        try {
+            return Math.min(messages.size(), Integer.parseInt(continuation.substring(1)));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return messages.size();
+        }
+    }
+
+    private boolean injectFault(HttpExchange exchange, boolean authenticated) throws IOException {
+        Faults current = faults;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = current.latencyMs() + (current.jitterMs() > 0 ? random.nextLong(current.jitterMs() + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (random.nextDouble() < current.throttledRate()) {
+            count("fault.429");
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendJson(exchange, 429, "{\"error\":\"Injected rate limit\"}");
+            return true;
+        }
+        if (random.nextDouble() < current.errorRate()) {
+            count("fault.500");
+            sendJson(exchange, 500, "{\"error\":\"Injected server error\"}");
+            return true;
+        }
+        if (authenticated && random.nextDouble() < current.unauthorizedRate()) {
+            count("fault.401");
+            sendJson(exchange, 401, "{\"error\":\"Injected unauthorized\"}");
+            return true;
+        }
+        return false;
+    }
+
+    private boolean checkToken(HttpExchange exchange, JsonObject body) throws IOException {
+        if (body == null || !body.has("token") || body.get("token").isJsonNull()
+                || body.get("token").getAsString().isEmpty()) {
+            sendJson(exchange, 401, "{\"error\":\"Missing token\"}");
+            return false;
+        }
+        return true;
+    }
+
+    private JsonObject readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            JsonElement element = gson.fromJson(reader, JsonElement.class);
+            return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private JsonObject parse(String json) {
+        try {
+            JsonElement element = json != null ? gson.fromJson(json, JsonElement.class) : null;
+            return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private void count(String action) {
+        requests.computeIfAbsent(action, key -> new LongAdder()).increment();
+    }
+
+    private static boolean accepts(HttpExchange exchange, String contentType) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains(contentType);
+    }
+
+    private static String sessionId(JsonObject body) {
+        return body.has("sessionId") ? body.get("sessionId").getAsString() : "";
+    }
+
+    private static String channel(JsonObject body) {
+        String channel = body.has("channel") ? Channels.normalize(body.get("channel").getAsString()) : null;
+        return channel != null ? channel : Channels.DEFAULT;
+    }
+
+    private static String getString(JsonObject body, String field) {
+        return body.has(field) && !body.get(field).isJsonNull() ? body.get(field).getAsString() : "";
+    }
+
+    private static long getLong(JsonObject body, String field) {
+        return body.has(field) ? body.get(field).getAsLong() : 0;
+    }
+
+    private static Map<String, Object> toJson(IrcMessage message) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("player", message.player());
+        json.put("message", message.message());
+        json.put("timestamp", message.timestamp());
+        json.put("sessionId", message.sessionId());
+        json.put("id", Long.toString(message.id()));
+        if (!Channels.isDefault(message.channel())) {
+            json.put("channel", message.channel());
+        }
+        return json;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        frontDoor.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // StandInWorker [port] [preload]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8787;
+        StandInWorker worker = new StandInWorker(port, DEFAULT_PAGE_SIZE);
+        if (args.length > 1) {
+            worker.preload(Integer.parseInt(args[1]));
+        }
+        IrcMod.LOGGER.info("Stand-in IRC worker listening on {}", worker.getUrl());
+    }
+}
@@ -0,0 +1,59 @@
+package com.irc.chat;
+
+import com.irc.network.Channels;
+import com.irc.network.IrcMessage;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Kept apart from the rendering so it can be measured without a running client
+public final class ChatFormat {
+    // A flood usually comes from a handful of players, a few hundred prefixes cover any realistic chat
+    private static final int MAX_CACHED_PREFIXES = 256;
+    // Access-ordered, so the least recently used prefix is evicted first; guarded by itself
+    private static final Map<PrefixKey, Text> PREFIXES = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PrefixKey, Text> eldest) {
+            return size() > MAX_CACHED_PREFIXES;
+        }
+    };
+
+    private record PrefixKey(String channel, String player) {
+    }
+
+    private ChatFormat() {
+    }
+
+    public static MutableText message(IrcMessage message) {
+        return Text.empty().append(prefix(message.channel(), message.player())).append(message.message());
+    }
+
+    public static MutableText repeated(Text line, int count) {
+        return Text.empty().append(line).append(Text.literal(" x" + count).formatted(Formatting.GRAY));
+    }
+
+    // Shared by all lines of the player, must not be modified
+    public static Text prefix(String channel, String player) {
+        PrefixKey key = new PrefixKey(channel, player);
+        synchronized (PREFIXES) {
+            Text prefix = PREFIXES.get(key);
+            if (prefix == null) {
+                // The default channel keeps the plain prefix, named channels show their name
+                String tag = Channels.isDefault(channel) ? "[IRC] " : "[IRC " + channel + "] ";
+                prefix = Text.empty()
+                        .append(Text.literal(tag).formatted(Formatting.BLUE))
+                        .append(Text.literal(player).formatted(Formatting.AQUA))
+                        .append(": ");
+                PREFIXES.put(key, prefix);
+            }
+            return prefix;
+        }
+    }
+
+    public static MutableText notice(String text) {
+        return Text.literal("[IRC] " + text).formatted(Formatting.GRAY);
+    }
+}
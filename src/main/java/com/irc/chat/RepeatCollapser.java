@@ -0,0 +1,76 @@
+package com.irc.chat;
+
+import com.irc.metrics.Counter;
+import com.irc.metrics.Metrics;
+import com.irc.network.IrcMessage;
+import net.minecraft.text.Text;
+
+// A message that repeats the previous one gets a counter on the earlier line instead of a line of its own. The
+// counter is written once per flush, and only while that line is still the newest
+public class RepeatCollapser<L> {
+    private static final Counter COLLAPSED = Metrics.counter("display.collapsed");
+
+    public interface Lines<L> {
+        // Null if the line did not show up as the newest one
+        L add(Text text);
+
+        boolean isNewest(L line);
+
+        L replaceNewest(L line, Text text);
+    }
+
+    private final Lines<L> lines;
+    private IrcMessage last;
+    // The last line as built, without a counter, and as it is stored in the chat
+    private Text lastText;
+    private L lastLine;
+    private int repeats;
+    private boolean dirty;
+
+    public RepeatCollapser(Lines<L> lines) {
+        this.lines = lines;
+    }
+
+    public void add(IrcMessage message) {
+        if (isRepeat(message) && lastLine != null && lines.isNewest(lastLine)) {
+            repeats++;
+            dirty = true;
+            COLLAPSED.increment();
+            return;
+        }
+        flush();
+        lastText = ChatFormat.message(message);
+        lastLine = lines.add(lastText);
+        last = message;
+        repeats = 1;
+    }
+
+    // Also ends any run of repeats
+    public void addNotice(Text text) {
+        flush();
+        lines.add(text);
+        last = null;
+        lastLine = null;
+    }
+
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Text text = ChatFormat.repeated(lastText, repeats);
+        if (lastLine == null || !lines.isNewest(lastLine)) {
+            // Another line got in between, the count goes on a line of its own
+            lines.add(text);
+            last = null;
+            lastLine = null;
+            return;
+        }
+        lastLine = lines.replaceNewest(lastLine, text);
+    }
+
+    private boolean isRepeat(IrcMessage message) {
+        return last != null && last.channel().equals(message.channel()) && last.player().equals(message.player())
+                && last.message().equals(message.message());
+    }
+}
@@ -0,0 +1,169 @@
+package com.irc.concurrent;
+
+import com.irc.IrcMod;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Every task runs on its own virtual thread and belongs to a Scope that is cancelled as a whole
+public final class ModExecutor {
+    public enum Scope {
+        // Lives until the client shuts down (receiver, sender, token checks)
+        CLIENT,
+        // Tied to the current server session (auth page, code exchange)
+        SESSION
+    }
+
+    private static final ModExecutor INSTANCE = new ModExecutor();
+
+    private final ExecutorService executor;
+    // Only fires timers and hands the work to a virtual thread
+    private final ScheduledExecutorService timer;
+    private final Map<Scope, Set<Future<?>>> tasks = new ConcurrentHashMap<>();
+    private final Map<String, Future<?>> exclusiveTasks = new ConcurrentHashMap<>();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final LongAdder submittedTasks = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+
+    private ModExecutor() {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("IRC Task #", 1).factory());
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IRC Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Scope scope : Scope.values()) {
+            tasks.put(scope, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    public static ModExecutor get() {
+        return INSTANCE;
+    }
+
+    public Future<?> submit(Scope scope, Runnable task) {
+        return submit(scope, null, task);
+    }
+
+    // Returns the running task with the same key instead of starting another, e.g. for a spammed %irc link
+    public synchronized Future<?> submitExclusive(String key, Scope scope, Runnable task) {
+        Future<?> existing = exclusiveTasks.get(key);
+        if (existing != null && !existing.isDone()) {
+            IrcMod.LOGGER.debug("Task '{}' is already running, not starting another", key);
+            return existing;
+        }
+        Future<?> future = submit(scope, key, task);
+        exclusiveTasks.put(key, future);
+        return future;
+    }
+
+    public ScheduledFuture<?> schedule(Scope scope, Runnable task, long delay, TimeUnit unit) {
+        return track(scope, timer.schedule(() -> {
+            submit(scope, task);
+        }, delay, unit));
+    }
+
+    // A run that outlasts the period skips the ticks it overlaps, the task never runs twice at once
+    public ScheduledFuture<?> scheduleAtFixedRate(Scope scope, Runnable task, long initialDelay, long period,
+            TimeUnit unit) {
+        AtomicBoolean running = new AtomicBoolean();
+        return track(scope, timer.scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            Future<?> run = submit(scope, () -> {
+                try {
+                    task.run();
+                } finally {
+                    running.set(false);
+                }
+            });
+            if (run.isCancelled()) {
+                // Rejected, or cancelled before it started
+                running.set(false);
+            }
+        }, initialDelay, period, unit));
+    }
+
+    // Timer futures cannot remove themselves like submitted tasks do, fired and cancelled ones are dropped here
+    private ScheduledFuture<?> track(Scope scope, ScheduledFuture<?> future) {
+        Set<Future<?>> scopeTasks = tasks.get(scope);
+        scopeTasks.removeIf(Future::isDone);
+        scopeTasks.add(future);
+        return future;
+    }
+
+    public void cancel(Scope scope) {
+        Set<Future<?>> scopeTasks = tasks.get(scope);
+        scopeTasks.removeIf(Future::isDone);
+        int count = scopeTasks.size();
+        scopeTasks.forEach(future -> future.cancel(true));
+        scopeTasks.removeIf(Future::isDone);
+        if (count > 0) {
+            IrcMod.LOGGER.debug("Cancelled {} {} tasks", count, scope);
+        }
+    }
+
+    public void shutdown() {
+        IrcMod.LOGGER.info("Shutting down IRC tasks ({})", getStats());
+        timer.shutdownNow();
+        for (Scope scope : Scope.values()) {
+            cancel(scope);
+        }
+        executor.shutdownNow();
+    }
+
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    public String getStats() {
+        return String.format("%d active tasks on virtual threads, %d submitted, %d completed, %d session tasks",
+                activeTasks.get(), submittedTasks.sum(), completedTasks.sum(), tasks.get(Scope.SESSION).size());
+    }
+
+    private Future<?> submit(Scope scope, String key, Runnable task) {
+        Set<Future<?>> scopeTasks = tasks.get(scope);
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            activeTasks.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                IrcMod.LOGGER.error("Uncaught error in IRC task", t);
+            } finally {
+                activeTasks.decrementAndGet();
+                completedTasks.increment();
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                scopeTasks.remove(this);
+                if (key != null) {
+                    exclusiveTasks.remove(key, this);
+                }
+            }
+        };
+
+        scopeTasks.add(future);
+        submittedTasks.increment();
+        try {
+            executor.execute(future);
+        } catch (Exception e) {
+            // Rejected after shutdown
+            future.cancel(false);
+            IrcMod.LOGGER.debug("IRC task rejected: {}", e.toString());
+        }
+        return future;
+    }
+}
@@ -2,40 +2,114 @@ package com.irc.config;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.irc.IrcMod;
+import com.irc.concurrent.ModExecutor;
 import net.fabricmc.loader.api.FabricLoader;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+// The config is replaced as a whole on every change, so readers never see a half-applied update
 public class IrcConfig {
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     private static final String CONFIG_FILE_NAME = "irc-config.json";
+    // Coalesces bursts of changes (e.g. token plus verification) into one write
+    private static final long SAVE_DEBOUNCE_MS = 500;
+    // Editors often save in several steps, wait for the file to settle before reading it
+    private static final long RELOAD_SETTLE_MS = 200;
 
-    private static ConfigData config = new ConfigData();
+    private static volatile ConfigData config = new ConfigData();
+    // Bumped whenever the config changes so cached request templates can be rebuilt
+    private static volatile int version;
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static volatile Path configFile;
+    private static Future<?> pendingSave;
+    private static Future<?> watcher;
+    // Held for a whole write, so writes never overlap on the temporary file
+    private static final Object writeLock = new Object();
+    // What the last write put on disk; the watcher sees our own writes and must not reload them
+    private static volatile String lastWritten;
 
     public static class ConfigData {
         public String workersUrl = "https://irc.typhfun.workers.dev";
         public String discordToken = "";
+        // Last successful verification of discordToken, reset whenever the token changes
+        public long verifiedAt = 0;
+        public long verifiedUntil = 0;
+        public boolean streamingEnabled = true;
+        public boolean webSocketEnabled = false;
+        public long pollMinIntervalMs = 1000;
+        public long pollMaxIntervalMs = 30000;
+        public int messagesPerTick = 5;
+        public int maxPendingMessages = 100;
+        public boolean journalEnabled = true;
+        // Unsent messages are kept on disk and sent after a restart
+        public boolean outboxEnabled = true;
+        public boolean binaryFormatEnabled = true;
+        public long catchUpMaxMessages = 5000;
+        public int catchUpLatestCount = 100;
+        // 0 disables the metrics file
+        public long metricsDumpIntervalSeconds = 300;
+        // Named channels joined besides the default one, rejoined on the next start
+        public List<String> channels = new ArrayList<>();
+    }
+
+    // Runs on the thread that made the change, or on the watcher task for edits of the file
+    @FunctionalInterface
+    public interface Listener {
+        void onChange(ConfigData previous, ConfigData current);
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // For tools that run without a Fabric loader, call before load()
+    public static void useConfigFile(Path path) {
+        configFile = path;
+    }
+
+    private static Path configPath() {
+        Path path = configFile;
+        if (path == null) {
+            path = FabricLoader.getInstance().getConfigDir().resolve(CONFIG_FILE_NAME);
+            configFile = path;
+        }
+        return path;
     }
 
     public static void load() {
-        Path configPath = FabricLoader.getInstance().getConfigDir().resolve(CONFIG_FILE_NAME);
-        File configFile = configPath.toFile();
-
-        if (configFile.exists()) {
-            try (FileReader reader = new FileReader(configFile)) {
-                config = GSON.fromJson(reader, ConfigData.class);
-                if (config == null) {
-                    config = new ConfigData();
-                }
+        Path configPath = configPath();
+
+        if (Files.exists(configPath)) {
+            String json = readString(configPath);
+            ConfigData loaded = json != null ? parse(json) : null;
+            if (loaded != null) {
+                lastWritten = json;
+                apply(loaded, false);
                 IrcMod.LOGGER.info("Loaded IRC config from {}", configPath);
-            } catch (IOException e) {
-                IrcMod.LOGGER.error("Failed to load IRC config", e);
-                config = new ConfigData();
             }
         } else {
             // Create default config
@@ -43,28 +117,244 @@ public class IrcConfig {
         }
     }
 
-    public static void save() {
-        Path configPath = FabricLoader.getInstance().getConfigDir().resolve(CONFIG_FILE_NAME);
-        File configFile = configPath.toFile();
+    private static String readString(Path configPath) {
+        try {
+            return Files.readString(configPath, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            IrcMod.LOGGER.error("Failed to load IRC config, keeping the current settings", e);
+            return null;
+        }
+    }
 
+    private static ConfigData parse(String json) {
         try {
-            configFile.getParentFile().mkdirs();
-            try (FileWriter writer = new FileWriter(configFile)) {
-                GSON.toJson(config, writer);
+            ConfigData loaded = GSON.fromJson(json, ConfigData.class);
+            return loaded != null ? loaded : new ConfigData();
+        } catch (JsonParseException e) {
+            IrcMod.LOGGER.error("Failed to load IRC config, keeping the current settings", e);
+            return null;
+        }
+    }
+
+    // Calls within SAVE_DEBOUNCE_MS of each other share one write
+    public static synchronized void save() {
+        if (pendingSave != null && !pendingSave.isDone()) {
+            return;
+        }
+        pendingSave = ModExecutor.get().schedule(ModExecutor.Scope.CLIENT, IrcConfig::write, SAVE_DEBOUNCE_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Called on shutdown, before the executor goes away
+    public static void flush() {
+        Future<?> save;
+        synchronized (IrcConfig.class) {
+            save = pendingSave;
+            pendingSave = null;
+        }
+        if (save != null) {
+            save.cancel(false);
+            write();
+        }
+    }
+
+    private static void write() {
+        synchronized (writeLock) {
+            String json = GSON.toJson(config);
+            // An earlier write of a debounced burst may already have covered this one
+            if (json.equals(lastWritten)) {
+                return;
             }
-            IrcMod.LOGGER.info("Saved IRC config to {}", configPath);
+            Path configPath = configPath();
+            Path tempPath = configPath.resolveSibling(configPath.getFileName() + ".tmp");
+
+            try {
+                Files.createDirectories(configPath.getParent());
+                try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                    writer.write(json);
+                }
+                // The watcher may fire as soon as the file is moved in
+                lastWritten = json;
+                // Readers see either the old or the new file, never a truncated one
+                try {
+                    Files.move(tempPath, configPath, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempPath, configPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                IrcMod.LOGGER.info("Saved IRC config to {}", configPath);
+            } catch (IOException e) {
+                lastWritten = null;
+                IrcMod.LOGGER.error("Failed to save IRC config", e);
+            }
+        }
+    }
+
+    public static synchronized void startWatching() {
+        if (watcher == null) {
+            watcher = ModExecutor.get().submit(ModExecutor.Scope.CLIENT, IrcConfig::watch);
+        }
+    }
+
+    private static void watch() {
+        Path configPath = configPath();
+        try (WatchService watchService = configPath.getFileSystem().newWatchService()) {
+            configPath.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= event.context() instanceof Path path
+                            && path.getFileName().equals(configPath.getFileName());
+                }
+                if (changed) {
+                    Thread.sleep(RELOAD_SETTLE_MS);
+                    // Drop the events of the same save that came in while settling
+                    key.pollEvents();
+                    reload(configPath);
+                }
+                if (!key.reset()) {
+                    IrcMod.LOGGER.warn("IRC config directory is no longer watchable, hot reload stopped");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
         } catch (IOException e) {
-            IrcMod.LOGGER.error("Failed to save IRC config", e);
+            IrcMod.LOGGER.warn("Could not watch the IRC config for changes", e);
+        }
+    }
+
+    static void reload(Path configPath) {
+        String json = readString(configPath);
+        // Our own writes come back through the watcher too. Compared with what was written rather than with
+        // the current config, which may have changed again since.
+        if (json == null || json.equals(lastWritten)) {
+            return;
+        }
+        ConfigData loaded = parse(json);
+        if (loaded == null || GSON.toJson(loaded).equals(GSON.toJson(config))) {
+            return;
+        }
+        IrcMod.LOGGER.info("Reloading IRC config after it changed on disk");
+        if (apply(loaded, true)) {
+            // Otherwise the next start would load the stale verification along with the new token
+            save();
         }
     }
 
+    // Replaces the snapshot with a modified copy and persists it
+    private static void update(Consumer<ConfigData> change) {
+        ConfigData previous;
+        ConfigData next;
+        synchronized (IrcConfig.class) {
+            previous = config;
+            next = GSON.fromJson(GSON.toJson(previous), ConfigData.class);
+            change.accept(next);
+            config = next;
+            version++;
+        }
+        notifyListeners(previous, next);
+        save();
+    }
+
+    // An edited token has not been verified, like one set through setDiscordToken. Returns whether the
+    // verification read along with it was dropped.
+    private static boolean apply(ConfigData next, boolean edited) {
+        ConfigData previous;
+        boolean unverified;
+        synchronized (IrcConfig.class) {
+            previous = config;
+            unverified = edited && !Objects.equals(previous.discordToken, next.discordToken)
+                    && (next.verifiedAt != 0 || next.verifiedUntil != 0);
+            if (unverified) {
+                next.verifiedAt = 0;
+                next.verifiedUntil = 0;
+            }
+            config = next;
+            version++;
+        }
+        notifyListeners(previous, next);
+        return unverified;
+    }
+
+    private static void notifyListeners(ConfigData previous, ConfigData current) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onChange(previous, current);
+            } catch (Exception e) {
+                IrcMod.LOGGER.error("Error in IRC config listener", e);
+            }
+        }
+    }
+
+    public static int getVersion() {
+        return version;
+    }
+
     public static String getWorkersUrl() {
         return config.workersUrl;
     }
 
     public static void setWorkersUrl(String url) {
-        config.workersUrl = url;
-        save();
+        update(data -> data.workersUrl = url);
+    }
+
+    public static boolean isStreamingEnabled() {
+        return config.streamingEnabled;
+    }
+
+    public static boolean isWebSocketEnabled() {
+        return config.webSocketEnabled;
+    }
+
+    public static long getPollMinIntervalMs() {
+        return config.pollMinIntervalMs;
+    }
+
+    public static long getPollMaxIntervalMs() {
+        return config.pollMaxIntervalMs;
+    }
+
+    public static int getMessagesPerTick() {
+        return config.messagesPerTick;
+    }
+
+    public static int getMaxPendingMessages() {
+        return config.maxPendingMessages;
+    }
+
+    public static boolean isJournalEnabled() {
+        return config.journalEnabled;
+    }
+
+    public static boolean isOutboxEnabled() {
+        return config.outboxEnabled;
+    }
+
+    public static boolean isBinaryFormatEnabled() {
+        return config.binaryFormatEnabled;
+    }
+
+    public static long getCatchUpMaxMessages() {
+        return config.catchUpMaxMessages;
+    }
+
+    public static int getCatchUpLatestCount() {
+        return config.catchUpLatestCount;
+    }
+
+    public static long getMetricsDumpIntervalSeconds() {
+        return config.metricsDumpIntervalSeconds;
+    }
+
+    public static List<String> getChannels() {
+        return config.channels != null ? List.copyOf(config.channels) : List.of();
+    }
+
+    public static void setChannels(List<String> channels) {
+        update(data -> data.channels = new ArrayList<>(channels));
     }
 
     public static String getDiscordToken() {
@@ -72,7 +362,25 @@ public class IrcConfig {
     }
 
     public static void setDiscordToken(String token) {
-        config.discordToken = token;
-        save();
+        update(data -> {
+            data.discordToken = token;
+            data.verifiedAt = 0;
+            data.verifiedUntil = 0;
+        });
+    }
+
+    public static long getVerifiedAt() {
+        return config.verifiedAt;
+    }
+
+    public static long getVerifiedUntil() {
+        return config.verifiedUntil;
+    }
+
+    public static void setVerification(long verifiedAt, long verifiedUntil) {
+        update(data -> {
+            data.verifiedAt = verifiedAt;
+            data.verifiedUntil = verifiedUntil;
+        });
     }
 }
@@ -0,0 +1,13 @@
+package com.irc.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.AuthExchange")
+@Label("IRC Auth Code Exchange")
+@Description("Exchange of a Discord OAuth code for a token")
+@Threshold("0 ms")
+public class AuthExchangeEvent extends HttpEvent {
+}
@@ -0,0 +1,26 @@
+package com.irc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.Display")
+@Label("IRC Display")
+@Description("Rendering of received messages into the chat on the client thread, once per tick with work to do")
+@Category({"IRC", "Messages"})
+@StackTrace(false)
+@Threshold("0 ms")
+public class DisplayEvent extends Event {
+    @Label("Rendered")
+    public int rendered;
+
+    @Label("Skipped")
+    public int skipped;
+
+    @Label("Queue Depth")
+    public int queueDepth;
+}
@@ -0,0 +1,28 @@
+package com.irc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+// Committed by HttpTransport, which only fills the fields when the recording keeps the event
+@Category({"IRC", "Network"})
+@StackTrace(false)
+public abstract class HttpEvent extends Event {
+    @Label("Endpoint")
+    public String endpoint;
+
+    // -1 when the request failed without a response
+    @Label("Status")
+    public int status;
+
+    @Label("Request Bytes")
+    @DataAmount
+    public long requestBytes;
+
+    // From Content-Length, -1 for streamed or chunked responses
+    @Label("Response Bytes")
+    @DataAmount
+    public long responseBytes;
+}
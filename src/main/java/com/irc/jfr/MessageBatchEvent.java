@@ -0,0 +1,28 @@
+package com.irc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.MessageBatch")
+@Label("IRC Message Batch")
+@Description("Decoding of one receive response or stream event, including handing the messages on")
+@Category({"IRC", "Messages"})
+@StackTrace(false)
+@Threshold("0 ms")
+public class MessageBatchEvent extends Event {
+    // poll, stream or websocket
+    @Label("Source")
+    public String source;
+
+    // json or binary
+    @Label("Format")
+    public String format;
+
+    @Label("Message Count")
+    public int count;
+}
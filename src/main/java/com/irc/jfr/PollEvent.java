@@ -0,0 +1,13 @@
+package com.irc.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.Poll")
+@Label("IRC Poll")
+@Description("A receive or stream request to the worker, up to the response headers")
+@Threshold("0 ms")
+public class PollEvent extends HttpEvent {
+}
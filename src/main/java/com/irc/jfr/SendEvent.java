@@ -0,0 +1,13 @@
+package com.irc.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.Send")
+@Label("IRC Send")
+@Description("A send or sendBatch request to the worker")
+@Threshold("0 ms")
+public class SendEvent extends HttpEvent {
+}
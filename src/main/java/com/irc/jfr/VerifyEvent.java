@@ -0,0 +1,13 @@
+package com.irc.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("com.irc.Verify")
+@Label("IRC Verify")
+@Description("A Discord token verification")
+@Threshold("0 ms")
+public class VerifyEvent extends HttpEvent {
+}
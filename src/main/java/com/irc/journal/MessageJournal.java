@@ -0,0 +1,344 @@
+package com.irc.journal;
+
+import com.irc.IrcMod;
+import com.irc.network.ChannelCursors;
+import com.irc.network.Channels;
+import com.irc.network.IrcMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Records are [int length][int crc32][payload], a zero length ends a segment. Each segment starts with a checkpoint
+// of all channel cursors
+public class MessageJournal {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Checkpoint records have this where a message has its timestamp
+    private static final long CHECKPOINT = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer active;
+    private long activeIndex;
+    private final Map<String, ChannelCursors.Cursor> cursors = new HashMap<>();
+    private int unflushedRecords;
+
+    private MessageJournal(Path directory) {
+        this.directory = directory;
+    }
+
+    public static MessageJournal open(Path directory) throws IOException {
+        MessageJournal journal = new MessageJournal(directory);
+        journal.recover();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(MessageJournal::isSegment).sorted().forEach(segments::add);
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(0);
+            return;
+        }
+
+        Path last = segments.peekLast();
+        activeIndex = segmentIndex(last);
+        active = map(last);
+
+        // Scan to the end of the valid records; anything after a bad record is a torn write
+        List<Map<String, ChannelCursors.Cursor>> checkpoints = new ArrayList<>();
+        int position = readRecords(active, this::advanceCursor, checkpoints::add);
+        if (position + HEADER_SIZE <= SEGMENT_SIZE && active.getLong(position) != 0) {
+            IrcMod.LOGGER.warn("Discarding truncated IRC journal tail in {} at offset {}", last, position);
+            for (int i = position; i < SEGMENT_SIZE; i++) {
+                active.put(i, (byte) 0);
+            }
+            active.force();
+        }
+        active.position(position);
+
+        // A crash during rotation can leave the newest segment without its checkpoint, and segments written
+        // before checkpoints existed have none; read back until one turns up
+        List<Path> older = new ArrayList<>(segments);
+        for (int i = older.size() - 2; i >= 0 && checkpoints.isEmpty(); i--) {
+            readRecords(readFile(older.get(i)), this::advanceCursor, checkpoints::add);
+        }
+        checkpoints.forEach(checkpoint -> checkpoint.forEach(this::advanceCursor));
+
+        IrcMod.LOGGER.info("Opened IRC journal with {} segments, resuming from timestamp {}", segments.size(),
+                getCursor());
+    }
+
+    public synchronized void append(IrcMessage message) {
+        try {
+            byte[] payload = encode(message);
+            // Far beyond any chat message, and a fresh segment always has room for it after its checkpoint
+            if (payload.length > SEGMENT_SIZE / 2) {
+                IrcMod.LOGGER.warn("IRC message too large for the journal ({} bytes), skipping", payload.length);
+                return;
+            }
+            // Always leave room for a zero length terminator
+            if (active.remaining() < HEADER_SIZE + payload.length + HEADER_SIZE) {
+                rotate();
+            }
+            write(payload);
+            advanceCursor(message);
+        } catch (IOException e) {
+            IrcMod.LOGGER.error("Failed to append to IRC journal", e);
+        }
+    }
+
+    private void write(byte[] payload) {
+        crc.reset();
+        crc.update(payload);
+        int start = active.position();
+        active.position(start + HEADER_SIZE);
+        active.put(payload);
+        active.putInt(start + 4, (int) crc.getValue());
+        // Length last, so a record is only visible once it is complete
+        active.putInt(start, payload.length);
+        unflushedRecords++;
+    }
+
+    // Called periodically and on shutdown rather than per message
+    public synchronized void checkpoint() {
+        if (unflushedRecords > 0) {
+            active.force();
+            unflushedRecords = 0;
+        }
+    }
+
+    // Of the default channel
+    public synchronized long getCursor() {
+        return cursors.getOrDefault(Channels.DEFAULT, ChannelCursors.Cursor.START).timestamp();
+    }
+
+    public synchronized long getCursorId() {
+        return cursors.getOrDefault(Channels.DEFAULT, ChannelCursors.Cursor.START).id();
+    }
+
+    public synchronized Map<String, ChannelCursors.Cursor> getCursors() {
+        return Map.copyOf(cursors);
+    }
+
+    private void advanceCursor(IrcMessage message) {
+        advanceCursor(message.channel(), new ChannelCursors.Cursor(message.timestamp(), message.id()));
+    }
+
+    private void advanceCursor(String channel, ChannelCursors.Cursor cursor) {
+        cursors.merge(channel, cursor,
+                (current, next) -> current.isBefore(next.timestamp(), next.id()) ? next : current);
+    }
+
+    // Oldest first
+    public synchronized List<IrcMessage> readLast(int count) {
+        Deque<IrcMessage> result = new ArrayDeque<>(count);
+        List<Path> newestFirst = new ArrayList<>(segments);
+        for (int i = newestFirst.size() - 1; i >= 0 && result.size() < count; i--) {
+            List<IrcMessage> messages;
+            try {
+                messages = i == newestFirst.size() - 1 ? readBuffer(active.duplicate())
+                        : readSegment(newestFirst.get(i));
+            } catch (IOException e) {
+                IrcMod.LOGGER.error("Failed to read IRC journal segment {}", newestFirst.get(i), e);
+                break;
+            }
+            for (int j = messages.size() - 1; j >= 0 && result.size() < count; j--) {
+                result.addFirst(messages.get(j));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private void rotate() throws IOException {
+        active.force();
+        unflushedRecords = 0;
+        openSegment(activeIndex + 1);
+        if (!cursors.isEmpty()) {
+            write(encodeCheckpoint(cursors));
+        }
+
+        while (segments.size() > MAX_SEGMENTS) {
+            Path oldest = segments.pollFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException e) {
+                IrcMod.LOGGER.warn("Failed to delete old IRC journal segment {}", oldest, e);
+            }
+        }
+    }
+
+    private void openSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        activeIndex = index;
+        active = map(path);
+        active.position(0);
+        segments.add(path);
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // Mapping beyond the end grows the file; the new bytes read as zeros
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private List<IrcMessage> readSegment(Path path) throws IOException {
+        return readBuffer(readFile(path));
+    }
+
+    private static ByteBuffer readFile(Path path) throws IOException {
+        // Older segments are read into the heap instead of being mapped, so they can be deleted later
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), SEGMENT_SIZE));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private List<IrcMessage> readBuffer(ByteBuffer buffer) {
+        List<IrcMessage> messages = new ArrayList<>();
+        readRecords(buffer, messages::add, checkpoint -> {
+        });
+        return messages;
+    }
+
+    // Reads the valid records from the start of the buffer and returns the position after the last one
+    private int readRecords(ByteBuffer buffer, Consumer<IrcMessage> messages,
+            Consumer<Map<String, ChannelCursors.Cursor>> checkpoints) {
+        int position = 0;
+        int length;
+        while ((length = validRecordLength(buffer, position)) > 0) {
+            if (buffer.getLong(position + HEADER_SIZE) == CHECKPOINT) {
+                checkpoints.accept(decodeCheckpoint(buffer, position + HEADER_SIZE, length));
+            } else {
+                messages.accept(decode(buffer, position + HEADER_SIZE, length));
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    // Returns the payload length of a complete, checksummed record at position, or 0 at the end of the data
+    private int validRecordLength(ByteBuffer buffer, int position) {
+        if (position + HEADER_SIZE > buffer.limit()) {
+            return 0;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(buffer.slice(position + HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : 0;
+    }
+
+    private static byte[] encode(IrcMessage message) {
+        byte[] sessionId = message.sessionId().getBytes(StandardCharsets.UTF_8);
+        byte[] player = message.player().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.message().getBytes(StandardCharsets.UTF_8);
+        // The channel is only written for named channels, default channel records keep the old layout
+        byte[] channel = Channels.isDefault(message.channel()) ? null
+                : message.channel().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 12 + sessionId.length + player.length + text.length + 8
+                + (channel != null ? 4 + channel.length : 0));
+        buffer.putLong(message.timestamp());
+        buffer.putInt(sessionId.length).put(sessionId);
+        buffer.putInt(player.length).put(player);
+        buffer.putInt(text.length).put(text);
+        buffer.putLong(message.id());
+        if (channel != null) {
+            buffer.putInt(channel.length).put(channel);
+        }
+        return buffer.array();
+    }
+
+    private static IrcMessage decode(ByteBuffer buffer, int position, int length) {
+        ByteBuffer record = buffer.duplicate().position(position).limit(position + length);
+        long timestamp = record.getLong();
+        String sessionId = readString(record);
+        String player = readString(record);
+        String text = readString(record);
+        // Records written before message ids existed end here and get their id derived from the content
+        if (record.remaining() < 8) {
+            return IrcMessage.of(player, text, timestamp, sessionId, null);
+        }
+        long id = record.getLong();
+        return new IrcMessage(player, text, timestamp, sessionId, id,
+                record.remaining() >= 4 ? readString(record) : Channels.DEFAULT);
+    }
+
+    private static byte[] encodeCheckpoint(Map<String, ChannelCursors.Cursor> cursors) {
+        List<byte[]> channels = new ArrayList<>(cursors.size());
+        int size = 8 + 4;
+        for (String channel : cursors.keySet()) {
+            byte[] bytes = channel.getBytes(StandardCharsets.UTF_8);
+            channels.add(bytes);
+            size += 4 + bytes.length + 16;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(CHECKPOINT);
+        buffer.putInt(cursors.size());
+        int i = 0;
+        for (ChannelCursors.Cursor cursor : cursors.values()) {
+            byte[] channel = channels.get(i++);
+            buffer.putInt(channel.length).put(channel);
+            buffer.putLong(cursor.timestamp());
+            buffer.putLong(cursor.id());
+        }
+        return buffer.array();
+    }
+
+    private static Map<String, ChannelCursors.Cursor> decodeCheckpoint(ByteBuffer buffer, int position, int length) {
+        ByteBuffer record = buffer.duplicate().position(position + 8).limit(position + length);
+        int count = record.getInt();
+        Map<String, ChannelCursors.Cursor> cursors = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String channel = readString(record);
+            cursors.put(channel, new ChannelCursors.Cursor(record.getLong(), record.getLong()));
+        }
+        return cursors;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentIndex(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
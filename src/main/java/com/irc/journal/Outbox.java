@@ -0,0 +1,228 @@
+package com.irc.journal;
+
+import com.irc.IrcMod;
+import com.irc.metrics.Counter;
+import com.irc.metrics.Histogram;
+import com.irc.metrics.Metrics;
+import com.irc.network.OutboundMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Messages the worker has not acknowledged yet, resent in order on the next start. Done records are never forced
+// on their own: losing one only means a resend, which the worker drops by its key
+public class Outbox {
+    private static final String FILE_NAME = "outbox.log";
+    private static final String COMPACT_SUFFIX = ".tmp";
+    private static final int HEADER_SIZE = 8;
+    // Longer records cannot come from a chat message, a length like this is garbage from a torn write
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final long COMPACT_THRESHOLD = 256 * 1024;
+    private static final byte TYPE_MESSAGE = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final Counter SYNCS = Metrics.counter("outbox.syncs");
+    private static final Histogram SYNC_TIME = Metrics.histogram("outbox.sync", "ms");
+
+    private final Path file;
+    private final CRC32 crc = new CRC32();
+    // Pending messages by idempotency key, in the order they were sent
+    private final Map<String, OutboundMessage> pending = new LinkedHashMap<>();
+    // Only replaced by compaction, which runs on the sender task like sync()
+    private volatile FileChannel channel;
+    private long written;
+    private long synced;
+
+    private Outbox(Path file) {
+        this.file = file;
+    }
+
+    public static Outbox open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Outbox outbox = new Outbox(directory.resolve(FILE_NAME));
+        outbox.recover();
+        return outbox;
+    }
+
+    private void recover() throws IOException {
+        // An interrupted compaction leaves its temporary file behind; the old log is still complete
+        Files.deleteIfExists(file.resolveSibling(FILE_NAME + COMPACT_SUFFIX));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // keep reading
+        }
+        buffer.flip();
+
+        int position = 0;
+        int length;
+        while ((length = validRecordLength(buffer, position)) > 0) {
+            apply(buffer.duplicate().position(position + HEADER_SIZE).limit(position + HEADER_SIZE + length));
+            position += HEADER_SIZE + length;
+        }
+        if (position < buffer.limit()) {
+            IrcMod.LOGGER.warn("Discarding truncated IRC outbox tail at offset {}", position);
+            channel.truncate(position);
+            channel.force(false);
+        }
+        written = position;
+        synced = position;
+        if (!pending.isEmpty()) {
+            IrcMod.LOGGER.info("IRC outbox has {} unsent messages from the last session", pending.size());
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        String key = readString(record);
+        if (type == TYPE_MESSAGE) {
+            String channelName = readString(record);
+            pending.put(key, new OutboundMessage(key, channelName, readString(record)));
+        } else if (type == TYPE_DONE) {
+            pending.remove(key);
+        }
+    }
+
+    public synchronized List<OutboundMessage> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    // Durable once a following sync() returned
+    public synchronized void append(OutboundMessage message) throws IOException {
+        write(encode(TYPE_MESSAGE, message.key(), message.channel(), message.text()));
+        pending.put(message.key(), message);
+    }
+
+    public synchronized void complete(Collection<OutboundMessage> messages) throws IOException {
+        for (OutboundMessage message : messages) {
+            if (pending.remove(message.key()) != null) {
+                write(encode(TYPE_DONE, message.key()));
+            }
+        }
+        if (written > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    // Appends made while the force runs wait for the next call
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            if (synced >= written) {
+                return;
+            }
+            target = written;
+        }
+        long start = System.nanoTime();
+        // Outside the lock, so the client thread can keep appending meanwhile
+        channel.force(false);
+        SYNC_TIME.recordSince(start);
+        SYNCS.increment();
+        synchronized (this) {
+            synced = Math.max(synced, target);
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized void close() {
+        // Interrupting the sender mid-write already closed the channel; the log is recovered on the next open
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            IrcMod.LOGGER.error("Failed to close IRC outbox", e);
+        }
+    }
+
+    // Caller holds the lock
+    private void write(byte[] payload) throws IOException {
+        written = write(channel, written, payload);
+    }
+
+    private long write(FileChannel target, long position, byte[] payload) throws IOException {
+        crc.reset();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining()) {
+            position += target.write(record, position);
+        }
+        return position;
+    }
+
+    // Caller holds the lock. Writes the pending messages to a new file and swaps it in atomically.
+    private void compact() throws IOException {
+        Path temporary = file.resolveSibling(FILE_NAME + COMPACT_SUFFIX);
+        long size = 0;
+        try (FileChannel compacted = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (OutboundMessage message : pending.values()) {
+                size = write(compacted, size, encode(TYPE_MESSAGE, message.key(), message.channel(), message.text()));
+            }
+            compacted.force(false);
+        }
+        // Windows cannot replace a file that is still open; if the move fails the old log stays in use
+        channel.close();
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        IrcMod.LOGGER.debug("Compacted IRC outbox from {} to {} bytes", written, size);
+        written = size;
+        synced = size;
+    }
+
+    // Returns the payload length of a complete, checksummed record at position, or 0 at the end of the data
+    private int validRecordLength(ByteBuffer buffer, int position) {
+        if (position + HEADER_SIZE > buffer.limit()) {
+            return 0;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > buffer.limit()) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(buffer.slice(position + HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : 0;
+    }
+
+    private static byte[] encode(byte type, String... strings) {
+        byte[][] bytes = new byte[strings.length][];
+        int length = 1;
+        for (int i = 0; i < strings.length; i++) {
+            bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + bytes[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(type);
+        for (byte[] string : bytes) {
+            buffer.putInt(string.length).put(string);
+        }
+        return buffer.array();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
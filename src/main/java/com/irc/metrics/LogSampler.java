@@ -0,0 +1,61 @@
+package com.irc.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class LogSampler {
+    public static final int MAX_LENGTH = 256;
+
+    private final int every;
+    private final long intervalMs;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong lastSampled = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public LogSampler(int every) {
+        this(every, 0);
+    }
+
+    private LogSampler(int every, long intervalMs) {
+        this.every = Math.max(1, every);
+        this.intervalMs = intervalMs;
+    }
+
+    // For errors that repeat for as long as something stays broken
+    public static LogSampler perInterval(long intervalMs) {
+        return new LogSampler(1, Math.max(1, intervalMs));
+    }
+
+    public boolean sample() {
+        if (intervalMs > 0) {
+            long now = System.currentTimeMillis();
+            long last = lastSampled.get();
+            if (last != Long.MIN_VALUE && now - last < intervalMs || !lastSampled.compareAndSet(last, now)) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+        return calls.getAndIncrement() % every == 0;
+    }
+
+    // How many calls were turned down since the last call
+    public long takeSuppressed() {
+        return suppressed.getAndSet(0);
+    }
+
+    public static String abbreviate(String text) {
+        if (text == null || text.length() <= MAX_LENGTH) {
+            return text;
+        }
+        return text.substring(0, MAX_LENGTH) + "... (" + text.length() + " chars)";
+    }
+
+    // For bodies read with readNBytes(MAX_LENGTH + 1), so an error page is never read in full
+    public static String abbreviate(byte[] body) {
+        if (body.length <= MAX_LENGTH) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+        return new String(body, 0, MAX_LENGTH, StandardCharsets.UTF_8) + "...";
+    }
+}
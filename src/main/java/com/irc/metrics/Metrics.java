@@ -0,0 +1,77 @@
+package com.irc.metrics;
+
+import com.irc.IrcMod;
+import com.irc.concurrent.ModExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+public final class Metrics {
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    // "ms" and "us" decide what recordSince records, other units are plain counts
+    public static Histogram histogram(String name, String unit) {
+        return histograms.computeIfAbsent(name, key -> new Histogram(unit));
+    }
+
+    // A later registration replaces an earlier one of the same name
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        histograms.forEach((name, histogram) -> {
+            Histogram.Snapshot snapshot = histogram.snapshot();
+            if (snapshot.count() > 0) {
+                lines.add(String.format("%s: n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d %s", name,
+                        snapshot.count(), snapshot.mean(), snapshot.p50(), snapshot.p90(), snapshot.p99(),
+                        snapshot.max(), histogram.getUnit()));
+            }
+        });
+        gauges.forEach((name, gauge) -> lines.add(name + ": " + gauge.getAsLong()));
+        counters.forEach((name, counter) -> lines.add(name + ": " + counter.get()));
+        return lines;
+    }
+
+    public static void startDump(Path file, long interval, TimeUnit unit) {
+        ModExecutor.get().scheduleAtFixedRate(ModExecutor.Scope.CLIENT, () -> dump(file), interval, interval, unit);
+    }
+
+    private static void dump(Path file) {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder text = new StringBuilder("# IRC metrics at ").append(Instant.now()).append('\n');
+        report().forEach(line -> text.append(line).append('\n'));
+        try {
+            Files.createDirectories(file.getParent());
+            Files.writeString(tempFile, text, StandardCharsets.UTF_8);
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            IrcMod.LOGGER.warn("Failed to write IRC metrics to {}", file, e);
+        }
+    }
+}
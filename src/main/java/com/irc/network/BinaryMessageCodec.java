@@ -0,0 +1,288 @@
+package com.irc.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Frames are [varint length][type][payload]; zero length is a heartbeat and unknown types are skipped. Player
+// and session ids are references into a string table that lives for one response or stream
+public final class BinaryMessageCodec {
+    public static final String CONTENT_TYPE = "application/x-irc-frames";
+
+    static final int FRAME_MESSAGE = 1;
+    // String key/value pairs about the response, e.g. the paging continuation
+    static final int FRAME_META = 2;
+    private static final int MAX_STRINGS = 1024;
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private BinaryMessageCodec() {
+    }
+
+    public static boolean isBinary(String contentType) {
+        return contentType.startsWith(CONTENT_TYPE);
+    }
+
+    // One per connection, not thread-safe
+    public static final class Decoder {
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, String> meta = new HashMap<>();
+        private long previousTimestamp;
+        // Channel references repeat from message to message, so the last one is only normalized once
+        private String wireChannel;
+        private String channel;
+
+        public int readAll(InputStream in, Consumer<IrcMessage> onMessage) throws IOException {
+            int count = 0;
+            int frame;
+            while ((frame = readFrame(in, onMessage)) >= 0) {
+                count += frame;
+            }
+            return count;
+        }
+
+        // Returns the number of messages in the frame, or -1 at the end of the stream
+        public int readFrame(InputStream in, Consumer<IrcMessage> onMessage) throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return -1;
+            }
+            long length = readVarint(in, first);
+            if (length == 0) {
+                return 0;
+            }
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Bad binary frame length: " + length);
+            }
+
+            byte[] payload = in.readNBytes((int) length);
+            if (payload.length < length) {
+                throw new EOFException("Truncated binary frame");
+            }
+            FrameReader frame = new FrameReader(payload);
+            int type = frame.readByte();
+            if (type == FRAME_META) {
+                while (frame.hasRemaining()) {
+                    meta.put(frame.readString(), frame.readString());
+                }
+                return 0;
+            }
+            if (type != FRAME_MESSAGE) {
+                return 0;
+            }
+
+            long timestamp = previousTimestamp + zigzagDecode(frame.readVarint());
+            long id = zigzagDecode(frame.readVarint());
+            String player = readReference(frame);
+            String sessionId = readReference(frame);
+            String message = frame.readString();
+            String channel = frame.hasRemaining() ? channel(readReference(frame)) : Channels.DEFAULT;
+            previousTimestamp = timestamp;
+            onMessage.accept(new IrcMessage(player, message, timestamp, sessionId, id, channel));
+            return 1;
+        }
+
+        public String getMeta(String key) {
+            return meta.get(key);
+        }
+
+        // -1 if the worker did not send one
+        public long getRemaining() throws IOException {
+            String remaining = meta.get("remaining");
+            if (remaining == null) {
+                return -1;
+            }
+            try {
+                long value = Long.parseLong(remaining);
+                if (value >= 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IOException("Bad remaining count in binary meta frame: " + remaining);
+        }
+
+        private String channel(String wire) {
+            if (!wire.equals(wireChannel)) {
+                wireChannel = wire;
+                channel = Channels.fromWire(wire);
+            }
+            return channel;
+        }
+
+        private String readReference(FrameReader frame) throws IOException {
+            long reference = frame.readVarint();
+            if (reference == 0) {
+                String literal = frame.readString();
+                // Mirrors the encoder: once the table is full, literals are no longer added
+                if (strings.size() < MAX_STRINGS) {
+                    strings.add(literal);
+                }
+                return literal;
+            }
+            if (reference < 0 || reference > strings.size()) {
+                throw new IOException("Unknown string reference " + reference);
+            }
+            return strings.get((int) reference - 1);
+        }
+    }
+
+    // Used by the stand-in worker and benchmarks, not thread-safe
+    public static final class Encoder {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final FrameWriter frame = new FrameWriter();
+        private long previousTimestamp;
+
+        public void write(IrcMessage message, OutputStream out) throws IOException {
+            frame.reset();
+            frame.write(FRAME_MESSAGE);
+            frame.writeVarint(zigzagEncode(message.timestamp() - previousTimestamp));
+            frame.writeVarint(zigzagEncode(message.id()));
+            writeReference(message.player());
+            writeReference(message.sessionId());
+            frame.writeString(message.message());
+            if (!Channels.isDefault(message.channel())) {
+                writeReference(message.channel());
+            }
+            previousTimestamp = message.timestamp();
+
+            writeVarint(out, frame.size());
+            frame.writeTo(out);
+        }
+
+        public void writeMeta(Map<String, String> fields, OutputStream out) throws IOException {
+            frame.reset();
+            frame.write(FRAME_META);
+            fields.forEach((key, value) -> {
+                frame.writeString(key);
+                frame.writeString(value);
+            });
+
+            writeVarint(out, frame.size());
+            frame.writeTo(out);
+        }
+
+        public void writeHeartbeat(OutputStream out) throws IOException {
+            out.write(0);
+        }
+
+        private void writeReference(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                frame.writeVarint(index + 1);
+                return;
+            }
+            frame.writeVarint(0);
+            frame.writeString(value);
+            if (strings.size() < MAX_STRINGS) {
+                strings.put(value, strings.size());
+            }
+        }
+    }
+
+    private static final class FrameReader {
+        private final byte[] data;
+        private int position;
+
+        private FrameReader(byte[] data) {
+            this.data = data;
+        }
+
+        private boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new EOFException("Binary frame ended early");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private String readString() throws IOException {
+            long length = readVarint();
+            if (length < 0) {
+                throw new IOException("Bad string length in binary frame: " + length);
+            }
+            if (length > data.length - position) {
+                throw new EOFException("Binary frame ended early");
+            }
+            String value = new String(data, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+    }
+
+    private static final class FrameWriter extends ByteArrayOutputStream {
+        private FrameWriter() {
+            super(128);
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    // Continues a varint whose first byte has already been read
+    private static long readVarint(InputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift >= 64) {
+                throw new IOException("Malformed varint");
+            }
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary frame");
+            }
+            value |= (long) (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigzagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,117 @@
+package com.irc.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The default channel goes in lastTimestamp/lastId as before, all others in one channels vector
+public class ChannelCursors {
+    public static final long BACKGROUND_REFRESH_MS = 30_000;
+
+    public record Cursor(long timestamp, long id) {
+        public static final Cursor START = new Cursor(0, 0);
+
+        public boolean isBefore(long timestamp, long id) {
+            return timestamp > this.timestamp || (timestamp == this.timestamp && id > this.id);
+        }
+    }
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastFetched = new ConcurrentHashMap<>();
+    // Channels in the last vector, they count as fetched once its request succeeded
+    private final Map<String, Long> requested = new ConcurrentHashMap<>();
+    private volatile String active = Channels.DEFAULT;
+
+    public ChannelCursors() {
+        cursors.put(Channels.DEFAULT, Cursor.START);
+    }
+
+    public boolean join(String channel) {
+        return cursors.putIfAbsent(channel, Cursor.START) == null;
+    }
+
+    // The default channel cannot be left; parting the active channel makes the default one active
+    public boolean part(String channel) {
+        if (Channels.isDefault(channel) || cursors.remove(channel) == null) {
+            return false;
+        }
+        lastFetched.remove(channel);
+        requested.remove(channel);
+        if (channel.equals(active)) {
+            active = Channels.DEFAULT;
+        }
+        return true;
+    }
+
+    public boolean isJoined(String channel) {
+        return cursors.containsKey(channel);
+    }
+
+    // Default channel first, the others in name order
+    public List<String> getChannels() {
+        List<String> channels = new ArrayList<>(cursors.keySet());
+        channels.remove(Channels.DEFAULT);
+        channels.sort(null);
+        channels.add(0, Channels.DEFAULT);
+        return channels;
+    }
+
+    public String getActive() {
+        return active;
+    }
+
+    public boolean setActive(String channel) {
+        if (!cursors.containsKey(channel)) {
+            return false;
+        }
+        active = channel;
+        return true;
+    }
+
+    public Cursor get(String channel) {
+        return cursors.getOrDefault(channel, Cursor.START);
+    }
+
+    // False if the channel is not joined, e.g. for a message that was in flight while it was left
+    public boolean advance(String channel, long timestamp, long id) {
+        return cursors.computeIfPresent(channel,
+                (key, cursor) -> cursor.isBefore(timestamp, id) ? new Cursor(timestamp, id) : cursor) != null;
+    }
+
+    // Background channels only every BACKGROUND_REFRESH_MS unless all is set. Null if there is no named channel to
+    // send; call markFetched() once the request went through
+    public String vector(boolean all) {
+        long now = System.currentTimeMillis();
+        requested.clear();
+        StringBuilder json = null;
+        for (Map.Entry<String, Cursor> entry : cursors.entrySet()) {
+            String channel = entry.getKey();
+            if (Channels.isDefault(channel)) {
+                continue;
+            }
+            if (!all && !channel.equals(active)) {
+                Long last = lastFetched.get(channel);
+                if (last != null && now - last < BACKGROUND_REFRESH_MS) {
+                    continue;
+                }
+            }
+            requested.put(channel, now);
+
+            // Channel names are limited to characters that need no escaping
+            json = json == null ? new StringBuilder("[") : json.append(',');
+            json.append("[\"").append(channel).append("\",").append(entry.getValue().timestamp()).append(',')
+                    .append(entry.getValue().id()).append(']');
+        }
+        return json == null ? null : json.append(']').toString();
+    }
+
+    public void markFetched() {
+        requested.forEach((channel, time) -> {
+            if (cursors.containsKey(channel)) {
+                lastFetched.put(channel, time);
+            }
+        });
+        requested.clear();
+    }
+}
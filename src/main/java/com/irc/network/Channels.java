@@ -0,0 +1,39 @@
+package com.irc.network;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+// On the wire the default channel is the absence of a channel field, so requests for it are unchanged
+public final class Channels {
+    public static final String DEFAULT = "#global";
+    private static final Pattern NAME = Pattern.compile("#[a-z0-9_-]{1,32}");
+
+    private Channels() {
+    }
+
+    // Null if it is not a valid name
+    public static String normalize(String name) {
+        if (name == null) {
+            return null;
+        }
+        String channel = name.trim().toLowerCase(Locale.ROOT);
+        if (!channel.startsWith("#")) {
+            channel = "#" + channel;
+        }
+        return NAME.matcher(channel).matches() ? channel : null;
+    }
+
+    // A channel name as the worker sent it, matched the way join names are. Invalid names are kept as they are,
+    // no channel is joined under them
+    public static String fromWire(String channel) {
+        if (isDefault(channel)) {
+            return DEFAULT;
+        }
+        String normalized = normalize(channel);
+        return normalized != null ? normalized : channel;
+    }
+
+    public static boolean isDefault(String channel) {
+        return channel == null || channel.isEmpty() || channel.equals(DEFAULT);
+    }
+}
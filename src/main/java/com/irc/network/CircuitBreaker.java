@@ -0,0 +1,102 @@
+package com.irc.network;
+
+import com.irc.IrcMod;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Opens after failureThreshold failures in a row, for a fully jittered time, then lets a single probe through
+public class CircuitBreaker {
+    public enum State {
+        // Requests flow normally
+        CLOSED,
+        // Requests are rejected until the open time is up
+        OPEN,
+        // One probe request is in flight
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private State state = State.CLOSED;
+    private int failures;
+    // Trips since the breaker was last closed, the exponent of the backoff cap
+    private int trips;
+    private long openUntil;
+
+    public CircuitBreaker(String name, int failureThreshold, long baseDelayMs, long maxDelayMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+    }
+
+    // The first caller after the open time becomes the probe, everyone else waits for its outcome
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                IrcMod.LOGGER.debug("{} circuit half-open, probing", name);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            IrcMod.LOGGER.info("{} recovered, resuming after {} failed attempts", name, failures);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        trips = 0;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    public synchronized void reset() {
+        state = State.CLOSED;
+        failures = 0;
+        trips = 0;
+    }
+
+    private void open() {
+        boolean wasClosed = state == State.CLOSED;
+        long delay = backoffMs(baseDelayMs, maxDelayMs, trips);
+        trips++;
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + delay;
+        if (wasClosed) {
+            IrcMod.LOGGER.warn("{} failed {} times in a row, backing off (next attempt in {} ms)", name, failures,
+                    delay);
+        } else {
+            IrcMod.LOGGER.debug("{} probe failed, next attempt in {} ms", name, delay);
+        }
+    }
+
+    // Full jitter: random between zero and baseMs * 2^attempt, capped at maxMs
+    public static long backoffMs(long baseMs, long maxMs, int attempt) {
+        // The shift is bounded so it cannot overflow
+        long cap = Math.min(maxMs, baseMs << Math.min(attempt, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRemainingOpenMs() {
+        return state == State.OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+}
@@ -0,0 +1,139 @@
+package com.irc.network;
+
+import com.irc.IrcMod;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Request bodies are only gzipped once the worker listed gzip in Accept-Encoding (RFC 7694), and never again
+// after a 415
+public final class Compression {
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+    // Small bodies are not worth the gzip header and CPU time
+    private static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private static volatile boolean requestGzipSupported;
+
+    private Compression() {
+    }
+
+    // Decompresses lazily on the reading thread, never on the HTTP client's executor
+    public static HttpResponse.BodyHandler<InputStream> ofInputStream() {
+        return info -> {
+            String encoding = contentEncoding(info.headers());
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofInputStream(),
+                    in -> encoding.isEmpty() ? in : new DecodingInputStream(in, encoding));
+        };
+    }
+
+    public static HttpResponse.BodyHandler<String> ofString() {
+        return info -> {
+            String encoding = contentEncoding(info.headers());
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> {
+                if (encoding.isEmpty()) {
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                try (InputStream in = new DecodingInputStream(new ByteArrayInputStream(bytes), encoding)) {
+                    return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        };
+    }
+
+    public static void onResponse(HttpResponse<?> response) {
+        response.headers().firstValue("Accept-Encoding").ifPresent(accepted -> {
+            boolean gzip = accepted.toLowerCase().contains("gzip");
+            if (gzip != requestGzipSupported) {
+                requestGzipSupported = gzip;
+                IrcMod.LOGGER.info("Worker {} gzipped request bodies", gzip ? "accepts" : "no longer accepts");
+            }
+        });
+    }
+
+    // True if the 415 was probably about compression and the request should be sent again uncompressed
+    public static boolean onUnsupportedMediaType() {
+        if (requestGzipSupported) {
+            requestGzipSupported = false;
+            IrcMod.LOGGER.info("Worker rejected a gzipped request body, sending uncompressed from now on");
+            return true;
+        }
+        return false;
+    }
+
+    public static boolean shouldCompress(int bodyLength) {
+        return requestGzipSupported && bodyLength >= MIN_COMPRESSED_SIZE;
+    }
+
+    public static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String contentEncoding(HttpHeaders headers) {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase();
+        return encoding.equals("identity") ? "" : encoding;
+    }
+
+    // Opens the decompressor on first read, since reading the gzip header may block
+    private static final class DecodingInputStream extends InputStream {
+        private final InputStream raw;
+        private final String encoding;
+        private InputStream decoded;
+
+        private DecodingInputStream(InputStream raw, String encoding) {
+            this.raw = raw;
+            this.encoding = encoding;
+        }
+
+        private InputStream decoded() throws IOException {
+            if (decoded == null) {
+                decoded = switch (encoding) {
+                    case "gzip", "x-gzip" -> new GZIPInputStream(raw, 8192);
+                    case "deflate" -> new InflaterInputStream(raw);
+                    default -> throw new IOException("Unsupported content encoding: " + encoding);
+                };
+            }
+            return decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return decoded().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoded == null ? 0 : decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (decoded != null) {
+                decoded.close();
+            } else {
+                raw.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.irc.network;
+
+import com.irc.IrcMod;
+import com.irc.jfr.HttpEvent;
+import com.irc.metrics.Counter;
+import com.irc.metrics.Histogram;
+import com.irc.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Each Priority has its own lane and RateLimiter, so a slow verify never holds up polls or sends
+public final class HttpTransport {
+    public enum Priority {
+        // receive, stream; the poll scheduler already paces these, the bucket mostly carries Retry-After
+        POLL(2, 10, 20),
+        // send, sendBatch
+        SEND(2, 5, 10),
+        // Discord verify, auth URL and code exchange
+        CONTROL(2, 2, 5);
+
+        private final int maxConcurrent;
+        private final double ratePerSecond;
+        private final int burst;
+
+        Priority(int maxConcurrent, double ratePerSecond, int burst) {
+            this.maxConcurrent = maxConcurrent;
+            this.ratePerSecond = ratePerSecond;
+            this.burst = burst;
+        }
+    }
+
+    public record Stats(long requests, long failures, long http2Responses, long http1Responses, int tlsSessions) {
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d failed), %d over HTTP/2, %d over HTTP/1.1, %d TLS sessions",
+                    requests, failures, http2Responses, http1Responses, tlsSessions);
+        }
+    }
+
+    private static final int EXECUTOR_THREADS = 4;
+    // Only used to estimate connection reuse, so it is capped rather than tracked precisely
+    private static final int MAX_TRACKED_SESSIONS = 64;
+    private static final Counter UNAUTHORIZED = Metrics.counter("http.unauthorized");
+    private static final Counter SERVER_ERRORS = Metrics.counter("http.server_errors");
+    private static final Counter THROTTLED = Metrics.counter("http.throttled");
+    private static final Histogram LIMITER_WAIT = Metrics.histogram("http.limiter_wait", "ms");
+    // Upper bound for a single Retry-After, so a bogus header cannot silence a lane for hours
+    private static final long MAX_RETRY_AFTER_MS = 5 * 60_000;
+    private static final HttpTransport INSTANCE = new HttpTransport();
+
+    private final HttpClient httpClient;
+    private final Map<Priority, Semaphore> lanes = new EnumMap<>(Priority.class);
+    private final Map<Priority, RateLimiter> limiters = new EnumMap<>(Priority.class);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder http1Responses = new LongAdder();
+    private final Set<String> tlsSessions = ConcurrentHashMap.newKeySet();
+
+    private HttpTransport() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(EXECUTOR_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "IRC HTTP #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new Semaphore(priority.maxConcurrent, true));
+            limiters.put(priority, new RateLimiter(priority.ratePerSecond, priority.burst));
+        }
+        Metrics.gauge("http.requests", requests::sum);
+        Metrics.gauge("http.failures", failures::sum);
+    }
+
+    public static HttpTransport get() {
+        return INSTANCE;
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, Priority priority)
+            throws IOException, InterruptedException {
+        return send(request, handler, priority, null);
+    }
+
+    // The event covers the exchange up to the response headers, not the wait for the lane
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, Priority priority,
+                                    HttpEvent event) throws IOException, InterruptedException {
+        throttle(priority);
+        Semaphore lane = lanes.get(priority);
+        lane.acquire();
+        HttpResponse<T> response = null;
+        if (event != null) {
+            event.begin();
+        }
+        try {
+            requests.increment();
+            response = httpClient.send(request, handler);
+            record(response, priority);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            lane.release();
+            if (event != null) {
+                commit(event, request, response);
+            }
+        }
+    }
+
+    private static void commit(HttpEvent event, HttpRequest request, HttpResponse<?> response) {
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.endpoint = request.uri().getHost() + request.uri().getPath();
+        event.status = response != null ? response.statusCode() : -1;
+        event.requestBytes = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        event.responseBytes = response != null
+                ? response.headers().firstValueAsLong("Content-Length").orElse(-1)
+                : -1;
+        event.commit();
+    }
+
+    // For traffic that bypasses send, such as WebSocket frames
+    public void throttle(Priority priority) throws InterruptedException {
+        long start = System.nanoTime();
+        limiters.get(priority).acquire();
+        if (System.nanoTime() - start > 1_000_000) {
+            LIMITER_WAIT.recordSince(start);
+        }
+    }
+
+    public void pause(Priority priority, long millis) {
+        limiters.get(priority).pauseFor(millis);
+    }
+
+    public long getDelayMs(Priority priority) {
+        return limiters.get(priority).getDelayMs();
+    }
+
+    public WebSocket.Builder newWebSocketBuilder() {
+        return httpClient.newWebSocketBuilder();
+    }
+
+    public Stats getStats() {
+        return new Stats(requests.sum(), failures.sum(), http2Responses.sum(), http1Responses.sum(),
+                tlsSessions.size());
+    }
+
+    private void record(HttpResponse<?> response, Priority priority) {
+        Compression.onResponse(response);
+        applyRateLimits(response.statusCode(), response.headers(), limiters.get(priority));
+        if (response.statusCode() == 401) {
+            UNAUTHORIZED.increment();
+        } else if (response.statusCode() == 429) {
+            THROTTLED.increment();
+        } else if (response.statusCode() >= 500) {
+            SERVER_ERRORS.increment();
+        }
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.increment();
+        } else {
+            http1Responses.increment();
+        }
+        // Few distinct TLS sessions for many requests means connections are being reused
+        response.sslSession().ifPresent(session -> {
+            if (tlsSessions.size() < MAX_TRACKED_SESSIONS) {
+                tlsSessions.add(bytesToHex(session.getId()));
+            }
+        });
+    }
+
+    static void applyRateLimits(int status, HttpHeaders headers, RateLimiter limiter) {
+        if (status == 429 || status == 503) {
+            long retryAfter = retryAfterMs(headers.firstValue("Retry-After").orElse(null));
+            if (retryAfter > 0) {
+                limiter.pauseFor(Math.min(retryAfter, MAX_RETRY_AFTER_MS));
+            }
+        }
+
+        // "RateLimit-Policy: 30;w=60" is 30 requests per 60 seconds
+        headers.firstValue("RateLimit-Policy").ifPresent(policy -> {
+            String[] parts = policy.split(",")[0].split(";");
+            try {
+                long limit = Long.parseLong(parts[0].trim());
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("w=")) {
+                        limiter.applyQuota(limit, Long.parseLong(parameter.substring(2)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                IrcMod.LOGGER.debug("Ignoring malformed RateLimit-Policy '{}'", policy);
+            }
+        });
+        // An exhausted quota holds the lane until the window resets, instead of running into 429s
+        if (headers.firstValueAsLong("RateLimit-Remaining").orElse(1) <= 0) {
+            long reset = headers.firstValueAsLong("RateLimit-Reset").orElse(0);
+            if (reset > 0) {
+                limiter.pauseFor(Math.min(reset * 1000, MAX_RETRY_AFTER_MS));
+            }
+        }
+    }
+
+    // Delay seconds or an HTTP date, -1 if absent or malformed
+    static long retryAfterMs(String value) {
+        return retryAfterMs(value, System.currentTimeMillis());
+    }
+
+    static long retryAfterMs(String value, long nowMillis) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - nowMillis);
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
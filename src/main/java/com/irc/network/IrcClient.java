@@ -1,104 +1,692 @@
 package com.irc.network;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonArray;
 import com.irc.IrcMod;
 import com.irc.config.IrcConfig;
+import com.irc.jfr.MessageBatchEvent;
+import com.irc.jfr.PollEvent;
+import com.irc.jfr.SendEvent;
+import com.irc.journal.Outbox;
+import com.irc.metrics.Counter;
+import com.irc.metrics.Histogram;
+import com.irc.metrics.LogSampler;
+import com.irc.metrics.Metrics;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.WebSocketHandshakeException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class IrcClient {
-    private final HttpClient httpClient;
-    private final String workersUrl;
+    private static final Histogram SEND_RTT = Metrics.histogram("send.rtt", "ms");
+    private static final Histogram POLL_RTT = Metrics.histogram("poll.rtt", "ms");
+    private static final Histogram POLL_MESSAGES = Metrics.histogram("poll.messages", "messages");
+    private static final Histogram PARSE_TIME = Metrics.histogram("receive.parse", "us");
+    private static final Histogram STREAM_PARSE_TIME = Metrics.histogram("stream.parse", "us");
+    private static final Counter SEND_ERRORS = Metrics.counter("send.errors");
+    private static final Counter POLL_ERRORS = Metrics.counter("poll.errors");
+    private static final Counter STREAM_MESSAGES = Metrics.counter("stream.messages");
+    private static final Counter SEND_THROTTLED = Metrics.counter("send.throttled");
+    // Used when a 429 or 503 does not carry Retry-After, doubled on each repeat
+    private static final long THROTTLE_BACKOFF_MS = 1_000;
+    private static final long MAX_THROTTLE_BACKOFF_MS = 60_000;
+    // After this many throttled answers in a row the send fails and the queue backs off on its own schedule
+    private static final int MAX_THROTTLED_ATTEMPTS = 5;
+    // A worker that is down fails every receive the same way, one line a minute says enough
+    private static final LogSampler RECEIVE_ERROR_LOG = LogSampler.perInterval(60_000);
+
+    // Called on the sender task. Only a rejection by the worker loses a message, everything else is retried in order
+    public interface DeliveryListener {
+        void onDelivered(List<OutboundMessage> messages);
+
+        void onRejected(OutboundMessage message, String reason);
+
+        void onDelayed(int queued, long retryInMs, boolean throttled);
+    }
+
+    // How one send request ended
+    private enum Outcome {
+        SENT,
+        // The worker refused the message itself, sending it again would not help
+        REJECTED,
+        // Network error, 5xx or unauthorized; the message stays queued
+        RETRY
+    }
+
+    public enum StreamResult {
+        // The stream ended or dropped, reconnect from the last cursor
+        CLOSED,
+        // The worker answered without a stream, fall back to polling
+        UNSUPPORTED,
+        // The request failed (network error, 5xx), retry after a delay
+        FAILED,
+        // The worker rejected the token, retrying is pointless until the player verifies
+        UNAUTHORIZED
+    }
+
+    private final HttpTransport transport;
     private final Gson gson;
+    private final OutboundQueue outboundQueue;
+    // Swapped as a whole when the endpoint changes; requests already built keep their old target
+    private volatile String workersUrl;
+    private volatile RequestTemplate receiveTemplate;
+    private volatile RequestTemplate receivePageTemplate;
+    private volatile RequestTemplate channelReceiveTemplate;
+    private volatile RequestTemplate channelReceivePageTemplate;
+    private volatile RequestTemplate latestTemplate;
+    private volatile RequestTemplate channelLatestTemplate;
+    private volatile RequestTemplate streamTemplate;
+    private volatile RequestTemplate channelStreamTemplate;
+    private volatile RequestTemplate sendTemplate;
+    private volatile RequestTemplate sendBatchTemplate;
+    private volatile RequestTemplate channelSendTemplate;
+    private volatile RequestTemplate channelSendBatchTemplate;
     private String sessionId;
+    private volatile InputStream activeStream;
+    private volatile IrcWebSocket webSocket;
+    private volatile long lastStreamActivity;
+    private volatile boolean batchSupported = true;
+    private volatile DeliveryListener deliveryListener;
 
     public IrcClient(String workersUrl) {
-        this.workersUrl = workersUrl;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this(workersUrl, null);
+    }
+
+    // Without an outbox unsent messages are kept in memory only
+    public IrcClient(String workersUrl, Outbox outbox) {
+        this.transport = HttpTransport.get();
         this.gson = new Gson();
         this.sessionId = UUID.randomUUID().toString();
+        this.outboundQueue = new OutboundQueue(outbox, this::deliver);
+        this.outboundQueue.setRetryListener((queued, retryInMs) -> {
+            DeliveryListener listener = deliveryListener;
+            if (listener != null) {
+                listener.onDelayed(queued, retryInMs, false);
+            }
+        });
+        createTemplates(workersUrl);
+        IrcConfig.addListener(this::onConfigChange);
+    }
+
+    private void createTemplates(String workersUrl) {
+        this.workersUrl = workersUrl;
+        // Workers that know the binary format answer with it, all others keep sending JSON
+        String binary = IrcConfig.isBinaryFormatEnabled() ? BinaryMessageCodec.CONTENT_TYPE + ", " : "";
+        // Workers that know message ids return everything after (lastTimestamp, lastId), older ones ignore lastId
+        this.receiveTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "lastTimestamp", "lastId")
+                .withHeaders("Accept", binary + "application/json");
+        this.receivePageTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "lastTimestamp", "lastId",
+                "continuation").withHeaders("Accept", binary + "application/json");
+        this.latestTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "latest")
+                .withHeaders("Accept", binary + "application/json");
+        this.streamTemplate = new RequestTemplate(workersUrl, "stream", sessionId, "lastTimestamp", "lastId")
+                .withHeaders("Accept", binary + "text/event-stream, application/x-ndjson");
+        // Workers that know idempotency keys drop a message they already have, older ones ignore the keys
+        this.sendTemplate = new RequestTemplate(workersUrl, "send", sessionId, "message", "key");
+        this.sendBatchTemplate = new RequestTemplate(workersUrl, "sendBatch", sessionId, "messages", "keys");
+        // Only used once a named channel is joined, so the default channel alone keeps the requests above
+        this.channelReceiveTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "lastTimestamp", "lastId",
+                "channels").withHeaders("Accept", binary + "application/json");
+        this.channelReceivePageTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "lastTimestamp",
+                "lastId", "channels", "continuation").withHeaders("Accept", binary + "application/json");
+        this.channelLatestTemplate = new RequestTemplate(workersUrl, "receive", sessionId, "latest", "channels")
+                .withHeaders("Accept", binary + "application/json");
+        this.channelStreamTemplate = new RequestTemplate(workersUrl, "stream", sessionId, "lastTimestamp", "lastId",
+                "channels").withHeaders("Accept", binary + "text/event-stream, application/x-ndjson");
+        this.channelSendTemplate = new RequestTemplate(workersUrl, "send", sessionId, "channel", "message", "key");
+        this.channelSendBatchTemplate = new RequestTemplate(workersUrl, "sendBatch", sessionId, "channel",
+                "messages", "keys");
+    }
+
+    // Token changes are picked up by the templates themselves, a new endpoint or format needs new templates
+    private void onConfigChange(IrcConfig.ConfigData previous, IrcConfig.ConfigData current) {
+        if (previous.workersUrl.equals(current.workersUrl)
+                && previous.binaryFormatEnabled == current.binaryFormatEnabled) {
+            return;
+        }
+        IrcMod.LOGGER.info("IRC worker endpoint changed to {}", current.workersUrl);
+        createTemplates(current.workersUrl);
+        batchSupported = true;
+        // In-flight polls and sends finish against the old endpoint, the stream reconnects to the new one
+        closeStream();
+    }
+
+    // False when the outbound queue is full; delivery is reported to the DeliveryListener
+    public boolean sendMessage(String message) {
+        return sendMessage(Channels.DEFAULT, message);
+    }
+
+    public boolean sendMessage(String channel, String message) {
+        return outboundQueue.offer(OutboundMessage.create(channel, message));
+    }
+
+    // Runs on the sender task one batch at a time, so messages leave in the order they were queued. Returns how
+    // many messages from the start of the batch are done; the queue retries the rest.
+    private int deliver(List<OutboundMessage> messages) {
+        int acked = 0;
+        IrcWebSocket socket = webSocket;
+        if (socket != null && socket.isOpen()) {
+            // Pipeline the frames, then wait for the acks in order
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> acks = new ArrayList<>(messages.size());
+            try {
+                // Frames bypass HttpTransport.send, so they take a token here; one per batch, like a sendBatch
+                transport.throttle(HttpTransport.Priority.SEND);
+                for (OutboundMessage message : messages) {
+                    acks.add(socket.sendMessage(message));
+                }
+                for (CompletableFuture<Void> ack : acks) {
+                    ack.join();
+                    SEND_RTT.recordSince(start);
+                    acked++;
+                }
+                IrcMod.LOGGER.debug("Sent {} messages over WebSocket", acked);
+                delivered(messages);
+                return acked;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                delivered(messages.subList(0, acked));
+                return acked;
+            } catch (Exception e) {
+                IrcMod.LOGGER.debug("WebSocket send failed, retrying {} messages over HTTP: {}",
+                        messages.size() - acked, e.toString());
+                delivered(messages.subList(0, acked));
+            }
+        }
+
+        // A batch goes to one channel, so split the rest into runs of the same channel
+        int done = acked;
+        while (done < messages.size()) {
+            String channel = messages.get(done).channel();
+            int end = done + 1;
+            while (end < messages.size() && messages.get(end).channel().equals(channel)) {
+                end++;
+            }
+            List<OutboundMessage> run = messages.subList(done, end);
+            Outcome outcome = run.size() > 1 && batchSupported ? sendBatchOverHttp(channel, run) : null;
+            if (outcome == Outcome.SENT) {
+                delivered(run);
+                done = end;
+            } else if (outcome == Outcome.RETRY) {
+                return done;
+            } else {
+                // Single messages, and batches the worker would not take as a whole
+                for (OutboundMessage message : run) {
+                    outcome = sendOverHttp(message);
+                    if (outcome == Outcome.RETRY) {
+                        return done;
+                    }
+                    if (outcome == Outcome.SENT) {
+                        delivered(List.of(message));
+                    }
+                    done++;
+                }
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return done;
+            }
+        }
+        return done;
     }
 
-    public void sendMessage(String message) {
+    private void delivered(List<OutboundMessage> messages) {
+        DeliveryListener listener = deliveryListener;
+        if (listener != null && !messages.isEmpty()) {
+            listener.onDelivered(messages);
+        }
+    }
+
+    private void rejected(OutboundMessage message, String reason) {
+        DeliveryListener listener = deliveryListener;
+        if (listener != null) {
+            listener.onRejected(message, reason);
+        }
+    }
+
+    // 401 is retried as well: the player may still verify, and the message should not be lost meanwhile
+    private static boolean isRetryable(int status) {
+        return status == 401 || status == 408 || status == 429 || status >= 500;
+    }
+
+    // Retries once uncompressed on 415, and up to MAX_THROTTLED_ATTEMPTS times on 429 or 503; the last throttled
+    // response is returned so the caller keeps the messages queued
+    private HttpResponse<String> sendWithRetries(Supplier<HttpRequest> request)
+            throws IOException, InterruptedException {
+        long backoff = THROTTLE_BACKOFF_MS;
+        boolean uncompressed = false;
+        int throttled = 0;
+        while (true) {
+            HttpResponse<String> response = transport.send(request.get(), Compression.ofString(),
+                    HttpTransport.Priority.SEND, new SendEvent());
+            int status = response.statusCode();
+            if (status == 415 && !uncompressed && Compression.onUnsupportedMediaType()) {
+                uncompressed = true;
+                continue;
+            }
+            if (status != 429 && status != 503) {
+                return response;
+            }
+
+            SEND_THROTTLED.increment();
+            if (++throttled >= MAX_THROTTLED_ATTEMPTS) {
+                IrcMod.LOGGER.warn("IRC worker is still throttling sends (status {}) after {} attempts, backing off",
+                        status, throttled);
+                return response;
+            }
+            // HttpTransport already paused the lane if the worker said for how long
+            if (response.headers().firstValue("Retry-After").isEmpty()) {
+                transport.pause(HttpTransport.Priority.SEND, backoff);
+                backoff = Math.min(backoff * 2, MAX_THROTTLE_BACKOFF_MS);
+            }
+            long delay = transport.getDelayMs(HttpTransport.Priority.SEND);
+            IrcMod.LOGGER.info("IRC worker is throttling sends (status {}), retrying in {} ms", status, delay);
+            DeliveryListener listener = deliveryListener;
+            if (listener != null) {
+                // The messages in flight are still counted by the queue
+                listener.onDelayed(outboundQueue.size(), delay, true);
+            }
+        }
+    }
+
+    private HttpRequest sendRequest(OutboundMessage message) {
+        String text = gson.toJson(message.text());
+        String key = gson.toJson(message.key());
+        return Channels.isDefault(message.channel()) ? sendTemplate.requestWithJson(text, key)
+                : channelSendTemplate.requestWithJson(gson.toJson(message.channel()), text, key);
+    }
+
+    private Outcome sendOverHttp(OutboundMessage message) {
+        long start = System.nanoTime();
         try {
-            JsonObject payload = new JsonObject();
-            payload.addProperty("action", "send");
-            payload.addProperty("message", message);
-            payload.addProperty("sessionId", sessionId);
-            payload.addProperty("token", IrcConfig.getDiscordToken());
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(workersUrl + "/api/irc"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(payload)))
-                    .timeout(Duration.ofSeconds(10))
-                    .build();
-
-            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenAccept(response -> {
-                        if (response.statusCode() == 200) {
-                            IrcMod.LOGGER.debug("Message sent successfully: {}", message);
-                        } else {
-                            IrcMod.LOGGER.error("Failed to send IRC message (status {}): {}", response.statusCode(),
-                                    response.body());
-                        }
-                    })
-                    .exceptionally(e -> {
-                        IrcMod.LOGGER.error("Error sending IRC message", e);
-                        return null;
-                    });
+            HttpResponse<String> response = sendWithRetries(() -> sendRequest(message));
+            SEND_RTT.recordSince(start);
+            int status = response.statusCode();
+            if (status == 200) {
+                IrcMod.LOGGER.debug("Message sent successfully ({} chars)", message.text().length());
+                return Outcome.SENT;
+            }
+            SEND_ERRORS.increment();
+            String body = LogSampler.abbreviate(response.body());
+            if (isRetryable(status)) {
+                IrcMod.LOGGER.warn("Failed to send IRC message (status {}), keeping it queued: {}", status, body);
+                return Outcome.RETRY;
+            }
+            IrcMod.LOGGER.error("IRC worker rejected message (status {}): {}", status, body);
+            rejected(message, "status " + status);
+            return Outcome.REJECTED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.RETRY;
         } catch (Exception e) {
-            IrcMod.LOGGER.error("Error sending IRC message", e);
+            SEND_ERRORS.increment();
+            IrcMod.LOGGER.warn("Error sending IRC message, keeping it queued: {}", e.toString());
+            return Outcome.RETRY;
         }
     }
 
-    public String getMessages(long lastTimestamp) {
+    // Null when the worker does not take the batch as a whole, the messages then go one by one
+    private Outcome sendBatchOverHttp(String channel, List<OutboundMessage> messages) {
         try {
-            JsonObject payload = new JsonObject();
-            payload.addProperty("action", "receive");
-            payload.addProperty("sessionId", sessionId);
-            payload.addProperty("lastTimestamp", lastTimestamp);
-            payload.addProperty("token", IrcConfig.getDiscordToken());
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(workersUrl + "/api/irc"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(payload)))
-                    .timeout(Duration.ofSeconds(10))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                IrcMod.LOGGER.debug("Received messages response (lastTimestamp: {}): {}", lastTimestamp,
-                        response.body());
-                return response.body();
-            } else if (response.statusCode() == 401) {
-                // Token invalid - this is expected if user hasn't verified yet
-                IrcMod.LOGGER.debug("Token invalid for receiving messages (user may need to verify): {}",
-                        response.body());
-                // Return empty messages array instead of null so receiver doesn't error
-                return "{\"messages\":[]}";
-            } else {
-                IrcMod.LOGGER.error("Failed to receive IRC messages (status {}): {}", response.statusCode(),
-                        response.body());
+            JsonArray texts = new JsonArray();
+            JsonArray keys = new JsonArray();
+            for (OutboundMessage message : messages) {
+                texts.add(message.text());
+                keys.add(message.key());
+            }
+
+            String textsJson = gson.toJson(texts);
+            String keysJson = gson.toJson(keys);
+            long start = System.nanoTime();
+            HttpResponse<String> response = sendWithRetries(() -> sendBatchRequest(channel, textsJson, keysJson));
+            SEND_RTT.recordSince(start);
+            int status = response.statusCode();
+            if (status == 200) {
+                IrcMod.LOGGER.debug("Sent batch of {} messages", messages.size());
+                return Outcome.SENT;
+            } else if (status == 400 || status == 404) {
+                IrcMod.LOGGER.info("Worker does not support batched sends (status {}), sending one by one", status);
+                batchSupported = false;
                 return null;
             }
+            SEND_ERRORS.increment();
+            if (isRetryable(status)) {
+                IrcMod.LOGGER.warn("Failed to send IRC message batch (status {}), keeping it queued: {}", status,
+                        LogSampler.abbreviate(response.body()));
+                return Outcome.RETRY;
+            }
+            // Find out which of the messages the worker objects to
+            IrcMod.LOGGER.info("IRC worker refused a batch (status {}), sending one by one", status);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.RETRY;
+        } catch (Exception e) {
+            SEND_ERRORS.increment();
+            IrcMod.LOGGER.warn("Error sending IRC message batch, keeping it queued: {}", e.toString());
+            return Outcome.RETRY;
+        }
+    }
+
+    private HttpRequest sendBatchRequest(String channel, String texts, String keys) {
+        return Channels.isDefault(channel) ? sendBatchTemplate.requestWithJson(texts, keys)
+                : channelSendBatchTemplate.requestWithJson(gson.toJson(channel), texts, keys);
+    }
+
+    public void shutdown() {
+        outboundQueue.stop();
+        closeStream();
+    }
+
+    public int getQueuedMessageCount() {
+        return outboundQueue.size();
+    }
+
+    public long getSendDelayMs() {
+        return transport.getDelayMs(HttpTransport.Priority.SEND);
+    }
+
+    public void setDeliveryListener(DeliveryListener listener) {
+        this.deliveryListener = listener;
+    }
+
+    // Null if the request failed. A continuation fetches the next page of a catch-up
+    public ReceivePage getMessages(long lastTimestamp, long lastId, String channels, String continuation,
+                                   Consumer<IrcMessage> onMessage) {
+        HttpRequest request;
+        if (channels == null) {
+            request = continuation == null
+                    ? receiveTemplate.request(lastTimestamp, lastId)
+                    : receivePageTemplate.request(lastTimestamp, lastId, continuation);
+        } else {
+            request = continuation == null
+                    ? channelReceiveTemplate.requestWithJson(Long.toString(lastTimestamp), Long.toString(lastId),
+                    channels)
+                    : channelReceivePageTemplate.requestWithJson(Long.toString(lastTimestamp),
+                    Long.toString(lastId), channels, gson.toJson(continuation));
+        }
+        ReceivePage page = receive(request, onMessage);
+        if (page != null) {
+            IrcMod.LOGGER.debug("Received {} messages (lastTimestamp: {}, remaining: {})", page.count(),
+                    lastTimestamp, page.remaining());
+        }
+        return page;
+    }
+
+    // Only paging workers understand this. Null if the request failed
+    public ReceivePage getLatestMessages(int count, String channels, Consumer<IrcMessage> onMessage) {
+        return receive(channels == null ? latestTemplate.request(count)
+                : channelLatestTemplate.requestWithJson(Integer.toString(count), channels), onMessage);
+    }
+
+    private ReceivePage receive(HttpRequest request, Consumer<IrcMessage> onMessage) {
+        try {
+            long start = System.nanoTime();
+            HttpResponse<InputStream> response = transport.send(request, Compression.ofInputStream(),
+                    HttpTransport.Priority.POLL, new PollEvent());
+            POLL_RTT.recordSince(start);
+
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 200) {
+                    // Includes reading the rest of the body, which is decoded as it arrives
+                    long parseStart = System.nanoTime();
+                    MessageBatchEvent batch = new MessageBatchEvent();
+                    batch.begin();
+                    boolean binary = BinaryMessageCodec.isBinary(contentType(response));
+                    ReceivePage page;
+                    if (binary) {
+                        BinaryMessageCodec.Decoder decoder = new BinaryMessageCodec.Decoder();
+                        int count = decoder.readAll(body, onMessage);
+                        page = new ReceivePage(count, decoder.getMeta("continuation"), decoder.getRemaining());
+                    } else {
+                        page = JsonMessageReader.readResponse(new InputStreamReader(body, StandardCharsets.UTF_8),
+                                onMessage);
+                    }
+                    PARSE_TIME.recordSince(parseStart);
+                    commitBatch(batch, "poll", binary, page.count());
+                    if (page.count() < 0) {
+                        IrcMod.LOGGER.warn("Response missing messages array");
+                        return ReceivePage.EMPTY;
+                    }
+                    POLL_MESSAGES.record(page.count());
+                    // The worker is reachable again, sends waiting out a backoff can go now
+                    outboundQueue.retryNow();
+                    return page;
+                } else if (response.statusCode() == 401) {
+                    // Token invalid - this is expected if user hasn't verified yet
+                    IrcMod.LOGGER.debug("Token invalid for receiving messages (user may need to verify)");
+                    return ReceivePage.UNAUTHORIZED;
+                } else {
+                    POLL_ERRORS.increment();
+                    if (RECEIVE_ERROR_LOG.sample()) {
+                        IrcMod.LOGGER.error(
+                                "Failed to receive IRC messages (status {}, {} similar errors not logged): {}",
+                                response.statusCode(), RECEIVE_ERROR_LOG.takeSuppressed(),
+                                LogSampler.abbreviate(body.readNBytes(LogSampler.MAX_LENGTH + 1)));
+                    }
+                    return null;
+                }
+            }
         } catch (Exception e) {
-            IrcMod.LOGGER.error("Error receiving IRC messages", e);
+            POLL_ERRORS.increment();
+            logReceiveError("Error receiving IRC messages", e);
             return null;
         }
     }
 
+    // Connection errors while the worker is down are expected; the stack trace is only kept at debug level
+    private static void logReceiveError(String message, Exception e) {
+        if (RECEIVE_ERROR_LOG.sample()) {
+            IrcMod.LOGGER.error("{} ({} similar errors not logged): {}", message, RECEIVE_ERROR_LOG.takeSuppressed(),
+                    e.toString());
+        }
+        IrcMod.LOGGER.debug(message, e);
+    }
+
+    // Server-sent events, newline-delimited JSON or binary frames, whichever the worker answers with. Blocks until
+    // the stream ends
+    public StreamResult streamMessages(long lastTimestamp, long lastId, String channels,
+                                       Consumer<IrcMessage> onMessage) {
+        try {
+            HttpRequest request = channels == null ? streamTemplate.request(lastTimestamp, lastId)
+                    : channelStreamTemplate.requestWithJson(Long.toString(lastTimestamp), Long.toString(lastId),
+                    channels);
+            // The timeout only covers the wait for response headers, the body stays open
+            HttpResponse<InputStream> response = transport.send(request, Compression.ofInputStream(),
+                    HttpTransport.Priority.POLL, new PollEvent());
+            String contentType = contentType(response);
+            boolean sse = contentType.startsWith("text/event-stream");
+            boolean ndjson = contentType.startsWith("application/x-ndjson");
+            boolean binary = BinaryMessageCodec.isBinary(contentType);
+
+            if (response.statusCode() != 200 || (!sse && !ndjson && !binary)) {
+                response.body().close();
+                int status = response.statusCode();
+                if (status == 200 || status == 400 || status == 404 || status == 405 || status == 501) {
+                    // Older workers reject the action or answer with a plain JSON body
+                    IrcMod.LOGGER.info("Worker does not support streaming (status {}, content type '{}')", status,
+                            contentType);
+                    return StreamResult.UNSUPPORTED;
+                } else if (status == 401) {
+                    IrcMod.LOGGER.debug("Token invalid for message stream (user may need to verify)");
+                    return StreamResult.UNAUTHORIZED;
+                } else if (RECEIVE_ERROR_LOG.sample()) {
+                    IrcMod.LOGGER.error("Failed to open IRC message stream (status {}, {} similar errors not logged)",
+                            status, RECEIVE_ERROR_LOG.takeSuppressed());
+                }
+                return StreamResult.FAILED;
+            }
+
+            activeStream = response.body();
+            lastStreamActivity = System.currentTimeMillis();
+            IrcMod.LOGGER.debug("Opened IRC message stream ({}, lastTimestamp: {})", contentType, lastTimestamp);
+
+            if (binary) {
+                BinaryMessageCodec.Decoder decoder = new BinaryMessageCodec.Decoder();
+                try (InputStream in = new BufferedInputStream(activeStream)) {
+                    // Every frame, heartbeats included, counts as activity for the idle watchdog
+                    while (true) {
+                        MessageBatchEvent batch = new MessageBatchEvent();
+                        batch.begin();
+                        int frame = decoder.readFrame(in, onMessage);
+                        if (frame < 0) {
+                            break;
+                        }
+                        lastStreamActivity = System.currentTimeMillis();
+                        STREAM_MESSAGES.add(frame);
+                        if (frame > 0) {
+                            commitBatch(batch, "stream", true, frame);
+                        }
+                    }
+                }
+                return StreamResult.CLOSED;
+            }
+
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(activeStream, StandardCharsets.UTF_8))) {
+                StringBuilder data = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lastStreamActivity = System.currentTimeMillis();
+                    if (ndjson) {
+                        if (!line.isBlank()) {
+                            readEvent(line, "stream", onMessage);
+                        }
+                    } else if (line.isEmpty()) {
+                        // A blank line terminates an SSE event
+                        if (data.length() > 0) {
+                            readEvent(data.toString(), "stream", onMessage);
+                            data.setLength(0);
+                        }
+                    } else if (line.startsWith("data:")) {
+                        if (data.length() > 0) {
+                            data.append('\n');
+                        }
+                        data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+                    }
+                    // Comment lines (":") are heartbeats, other SSE fields are ignored
+                }
+            }
+            return StreamResult.CLOSED;
+        } catch (IOException e) {
+            // Also raised when closeStream() cuts off an idle stream
+            IrcMod.LOGGER.debug("IRC message stream dropped: {}", e.toString());
+            return StreamResult.CLOSED;
+        } catch (Exception e) {
+            logReceiveError("Error streaming IRC messages", e);
+            return StreamResult.FAILED;
+        } finally {
+            activeStream = null;
+        }
+    }
+
+    // Sends go over the socket while it is open. Blocks until the connection ends
+    public StreamResult openWebSocket(long lastTimestamp, long lastId, String channels,
+                                      Consumer<IrcMessage> onMessage) {
+        IrcWebSocket socket = new IrcWebSocket(frame -> readEvent(frame, "websocket", onMessage));
+        try {
+            URI uri = URI.create(workersUrl.replaceFirst("^http", "ws") + "/api/irc/ws");
+            transport.newWebSocketBuilder()
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .buildAsync(uri, socket)
+                    .get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WebSocketHandshakeException handshake) {
+                int status = handshake.getResponse().statusCode();
+                if (status == 401) {
+                    IrcMod.LOGGER.debug("Token invalid for WebSocket (user may need to verify)");
+                    return StreamResult.UNAUTHORIZED;
+                }
+                IrcMod.LOGGER.info("Worker does not accept WebSocket connections (status {})", status);
+                return StreamResult.UNSUPPORTED;
+            }
+            IrcMod.LOGGER.debug("Failed to open IRC WebSocket: {}", e.getCause().toString());
+            return StreamResult.FAILED;
+        } catch (Exception e) {
+            logReceiveError("Error opening IRC WebSocket", e);
+            return StreamResult.FAILED;
+        }
+
+        socket.hello(sessionId, IrcConfig.getDiscordToken(), lastTimestamp, lastId, channels);
+        webSocket = socket;
+        IrcMod.LOGGER.debug("Opened IRC WebSocket (lastTimestamp: {})", lastTimestamp);
+        try {
+            socket.awaitClose();
+        } catch (InterruptedException e) {
+            socket.close();
+            Thread.currentThread().interrupt();
+        } finally {
+            webSocket = null;
+        }
+        return StreamResult.CLOSED;
+    }
+
+    private static void commitBatch(MessageBatchEvent batch, String source, boolean binary, int count) {
+        batch.end();
+        if (batch.shouldCommit()) {
+            batch.source = source;
+            batch.format = binary ? "binary" : "json";
+            batch.count = count;
+            batch.commit();
+        }
+    }
+
+    private static String contentType(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Type").orElse("");
+    }
+
+    private void readEvent(String event, String source, Consumer<IrcMessage> onMessage) {
+        try {
+            long start = System.nanoTime();
+            MessageBatchEvent batch = new MessageBatchEvent();
+            batch.begin();
+            int count = JsonMessageReader.readEvent(event, onMessage);
+            STREAM_PARSE_TIME.recordSince(start);
+            STREAM_MESSAGES.add(Math.max(0, count));
+            commitBatch(batch, source, false, Math.max(0, count));
+        } catch (Exception e) {
+            IrcMod.LOGGER.error("Error processing stream event", e);
+        }
+    }
+
+    public void closeStream() {
+        IrcWebSocket socket = webSocket;
+        if (socket != null) {
+            socket.close();
+        }
+
+        InputStream stream = activeStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                IrcMod.LOGGER.debug("Error closing IRC message stream", e);
+            }
+        }
+    }
+
+    public boolean isStreaming() {
+        return activeStream != null;
+    }
+
+    public long getLastStreamActivity() {
+        return lastStreamActivity;
+    }
+
     public String getSessionId() {
         return sessionId;
     }
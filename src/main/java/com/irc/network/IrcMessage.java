@@ -0,0 +1,51 @@
+package com.irc.network;
+
+// Without an id from the worker, the id is derived from the content so retries and overlapping responses
+// still match
+public record IrcMessage(String player, String message, long timestamp, String sessionId, long id, String channel) {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public IrcMessage(String player, String message, long timestamp, String sessionId, long id) {
+        this(player, message, timestamp, sessionId, id, Channels.DEFAULT);
+    }
+
+    public static IrcMessage of(String player, String message, long timestamp, String sessionId, String serverId) {
+        return of(player, message, timestamp, sessionId, serverId, Channels.DEFAULT);
+    }
+
+    public static IrcMessage of(String player, String message, long timestamp, String sessionId, String serverId,
+                                String channel) {
+        long id = serverId != null ? parseId(serverId) : deriveId(player, message, timestamp, sessionId);
+        // Derived ids of the default channel stay as they were, so journaled messages keep matching
+        if (serverId == null && !channel.equals(Channels.DEFAULT)) {
+            id = hash(id, channel);
+        }
+        return new IrcMessage(player, message, timestamp, sessionId, id, channel);
+    }
+
+    static long parseId(String serverId) {
+        try {
+            return Long.parseLong(serverId);
+        } catch (NumberFormatException e) {
+            // Non-numeric ids (e.g. UUIDs) are hashed down to 64 bits
+            return hash(FNV_OFFSET, serverId);
+        }
+    }
+
+    static long deriveId(String player, String message, long timestamp, String sessionId) {
+        long hash = FNV_OFFSET ^ timestamp;
+        hash = hash(hash * FNV_PRIME, sessionId);
+        hash = hash(hash, player);
+        return hash(hash, message);
+    }
+
+    // 64-bit FNV-1a over the chars of value, followed by a separator
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+}
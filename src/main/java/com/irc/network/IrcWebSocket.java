@@ -0,0 +1,205 @@
+package com.irc.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.irc.IrcMod;
+
+import java.io.IOException;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// JSON text frames: hello and send out, ack, error and messages in
+public class IrcWebSocket implements WebSocket.Listener {
+    private static final long HEARTBEAT_INTERVAL_MS = 20_000;
+    // No frame or pong for this long means the connection is dead even if TCP has not noticed yet
+    private static final long HEARTBEAT_TIMEOUT_MS = 60_000;
+    private static final long ACK_TIMEOUT_MS = 10_000;
+
+    private final Consumer<String> onEvent;
+    private final Gson gson;
+    private final Map<Long, CompletableFuture<Void>> pendingAcks = new ConcurrentHashMap<>();
+    private final AtomicLong nextFrameId = new AtomicLong();
+    private final CompletableFuture<WebSocket> opened = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final StringBuilder partialFrame = new StringBuilder();
+    private CompletableFuture<WebSocket> sendChain;
+    private volatile WebSocket webSocket;
+    private volatile long lastActivity;
+
+    public IrcWebSocket(Consumer<String> onEvent) {
+        this.onEvent = onEvent;
+        this.gson = new Gson();
+        this.sendChain = opened;
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        this.lastActivity = System.currentTimeMillis();
+        opened.complete(webSocket);
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        lastActivity = System.currentTimeMillis();
+        partialFrame.append(data);
+        if (last) {
+            String frame = partialFrame.toString();
+            partialFrame.setLength(0);
+            handleFrame(frame);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+        lastActivity = System.currentTimeMillis();
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        IrcMod.LOGGER.debug("IRC WebSocket closed by worker ({}): {}", statusCode, reason);
+        markClosed(null);
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        IrcMod.LOGGER.debug("IRC WebSocket error: {}", error.toString());
+        markClosed(error);
+    }
+
+    private void handleFrame(String frame) {
+        try {
+            JsonObject json = gson.fromJson(frame, JsonObject.class);
+            String type = json.has("type") ? json.get("type").getAsString() : "";
+
+            if (type.equals("ack") || type.equals("error")) {
+                CompletableFuture<Void> ack = json.has("id") ? pendingAcks.remove(json.get("id").getAsLong()) : null;
+                if (ack == null) {
+                    IrcMod.LOGGER.debug("Unmatched IRC WebSocket {} frame: {}", type, frame);
+                } else if (type.equals("ack")) {
+                    ack.complete(null);
+                } else {
+                    String error = json.has("error") ? json.get("error").getAsString() : "Unknown error";
+                    ack.completeExceptionally(new IOException(error));
+                }
+            } else {
+                onEvent.accept(frame);
+            }
+        } catch (Exception e) {
+            IrcMod.LOGGER.error("Error handling IRC WebSocket frame", e);
+        }
+    }
+
+    public void hello(String sessionId, String token, long lastTimestamp, long lastId, String channels) {
+        JsonObject frame = new JsonObject();
+        frame.addProperty("type", "hello");
+        frame.addProperty("sessionId", sessionId);
+        frame.addProperty("token", token);
+        frame.addProperty("lastTimestamp", lastTimestamp);
+        frame.addProperty("lastId", lastId);
+        if (channels != null) {
+            frame.add("channels", JsonParser.parseString(channels));
+        }
+        sendFrame(frame);
+    }
+
+    // Fails on an error frame, ack timeout or disconnect, so the caller can fall back to HTTP
+    public CompletableFuture<Void> sendMessage(OutboundMessage message) {
+        long id = nextFrameId.incrementAndGet();
+        CompletableFuture<Void> ack = new CompletableFuture<>();
+        pendingAcks.put(id, ack);
+
+        JsonObject frame = new JsonObject();
+        frame.addProperty("type", "send");
+        frame.addProperty("id", id);
+        frame.addProperty("message", message.text());
+        frame.addProperty("key", message.key());
+        if (!Channels.isDefault(message.channel())) {
+            frame.addProperty("channel", message.channel());
+        }
+        sendFrame(frame).exceptionally(e -> {
+            ack.completeExceptionally(e);
+            return null;
+        });
+
+        return ack.orTimeout(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> {
+                    pendingAcks.remove(id);
+                    if (e instanceof TimeoutException) {
+                        // The connection can be gone without onClose or onError being called, e.g. after a
+                        // reset while a frame was being written. Give up on it so the receiver reconnects.
+                        abort();
+                    }
+                });
+    }
+
+    private synchronized CompletableFuture<WebSocket> sendFrame(JsonObject frame) {
+        // WebSocket allows only one outstanding text send, so frames are chained
+        String text = gson.toJson(frame);
+        sendChain = sendChain.thenCompose(ws -> ws.sendText(text, true));
+        return sendChain;
+    }
+
+    // Pings until the connection closes or stops answering
+    public void awaitClose() throws InterruptedException {
+        while (!closed.isDone()) {
+            try {
+                closed.get(HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (System.currentTimeMillis() - lastActivity > HEARTBEAT_TIMEOUT_MS) {
+                    IrcMod.LOGGER.debug("IRC WebSocket heartbeat timed out");
+                    abort();
+                    return;
+                }
+                webSocket.sendPing(ByteBuffer.allocate(0));
+            } catch (ExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    public boolean isOpen() {
+        WebSocket ws = webSocket;
+        return ws != null && !closed.isDone() && !ws.isOutputClosed();
+    }
+
+    public void close() {
+        WebSocket ws = webSocket;
+        if (ws != null && !ws.isOutputClosed()) {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+        markClosed(null);
+    }
+
+    public void abort() {
+        WebSocket ws = webSocket;
+        if (ws != null) {
+            ws.abort();
+        }
+        markClosed(null);
+    }
+
+    private void markClosed(Throwable error) {
+        opened.completeExceptionally(new IOException("IRC WebSocket closed before opening", error));
+        closed.complete(null);
+        IOException cause = new IOException("IRC WebSocket closed", error);
+        pendingAcks.values().forEach(ack -> ack.completeExceptionally(cause));
+        pendingAcks.clear();
+    }
+}
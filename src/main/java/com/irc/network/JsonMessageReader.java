@@ -0,0 +1,99 @@
+package com.irc.network;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.function.Consumer;
+
+// Hands each message on as soon as its object closes. That pays off from a few dozen messages per response; a
+// single-message poll is slower than a Gson tree (see ResponseParsingBenchmark)
+public final class JsonMessageReader {
+    private JsonMessageReader() {
+    }
+
+    // The page count is -1 if the response has no messages array
+    public static ReceivePage readResponse(Reader in, Consumer<IrcMessage> onMessage) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        int count = -1;
+        String continuation = null;
+        long remaining = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "messages" -> count = readMessages(reader, onMessage);
+                case "continuation" -> continuation = nextString(reader);
+                case "remaining" -> remaining = reader.nextLong();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // An empty token means the same as no token
+        return new ReceivePage(count, continuation == null || continuation.isEmpty() ? null : continuation,
+                remaining);
+    }
+
+    // A single message or a messages batch. Returns -1 if the event carried none
+    public static int readEvent(String event, Consumer<IrcMessage> onMessage) throws IOException {
+        return readEvent(new JsonReader(new StringReader(event)), onMessage);
+    }
+
+    private static int readEvent(JsonReader reader, Consumer<IrcMessage> onMessage) throws IOException {
+        int count = -1;
+        String player = null;
+        String message = null;
+        String sessionId = "";
+        String id = null;
+        String channel = null;
+        long timestamp = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "messages" -> count = readMessages(reader, onMessage);
+                case "player" -> player = nextString(reader);
+                case "message" -> message = nextString(reader);
+                case "sessionId" -> sessionId = nextString(reader);
+                case "timestamp" -> timestamp = reader.nextLong();
+                case "id" -> id = nextString(reader);
+                case "channel" -> channel = nextString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (count < 0 && timestamp >= 0 && player != null && message != null) {
+            onMessage.accept(IrcMessage.of(player, message, timestamp, sessionId != null ? sessionId : "", id,
+                    Channels.fromWire(channel)));
+            count = 1;
+        }
+        return count;
+    }
+
+    private static int readMessages(JsonReader reader, Consumer<IrcMessage> onMessage) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return -1;
+        }
+
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            // Entries without the required fields are skipped
+            count += Math.max(0, readEvent(reader, onMessage));
+        }
+        reader.endArray();
+        return count;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
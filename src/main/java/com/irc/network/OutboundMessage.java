@@ -0,0 +1,10 @@
+package com.irc.network;
+
+import java.util.UUID;
+
+// The key goes along with every attempt, so the worker can drop a retry whose ack was lost
+public record OutboundMessage(String key, String channel, String text) {
+    public static OutboundMessage create(String channel, String text) {
+        return new OutboundMessage(UUID.randomUUID().toString(), channel, text);
+    }
+}
@@ -0,0 +1,258 @@
+package com.irc.network;
+
+import com.irc.IrcMod;
+import com.irc.concurrent.ModExecutor;
+import com.irc.journal.Outbox;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Messages within BATCH_WINDOW_MS of each other go out together. Undelivered ones stay at the head and are
+// retried in order after a backoff
+public class OutboundQueue {
+    private static final int CAPACITY = 256;
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final long BATCH_WINDOW_MS = 50;
+    private static final long RETRY_BASE_DELAY_MS = 1_000;
+    private static final long RETRY_MAX_DELAY_MS = 60_000;
+
+    // Returns how many messages from the start of the batch are done, delivered or rejected for good
+    @FunctionalInterface
+    public interface Sink {
+        int deliver(List<OutboundMessage> batch) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    public interface RetryListener {
+        void onRetry(int queued, long retryInMs);
+    }
+
+    // Guarded by lock; a monitor wait would pin the sender's virtual thread to its carrier
+    private final Deque<OutboundMessage> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a message is queued, a retry is cut short or the queue stops
+    private final Condition changed = lock.newCondition();
+    private final Outbox outbox;
+    private final Sink sink;
+    private final Future<?> sender;
+    private volatile RetryListener retryListener;
+    private volatile boolean backingOff;
+    private boolean retryNow;
+    private volatile boolean running;
+
+    // Without an outbox the queue is kept in memory only
+    public OutboundQueue(Outbox outbox, Sink sink) {
+        this.outbox = outbox;
+        this.sink = sink;
+        this.running = true;
+        if (outbox != null) {
+            restore(outbox.getPending());
+        }
+        this.sender = ModExecutor.get().submit(ModExecutor.Scope.CLIENT, this::drain);
+    }
+
+    // Left over from the last session, they go out before anything sent in this one. The capacity holds as for
+    // offer: what does not fit is dropped, from the outbox too so it does not come back on every start
+    private void restore(List<OutboundMessage> pending) {
+        int kept = Math.min(pending.size(), CAPACITY);
+        queue.addAll(pending.subList(0, kept));
+        if (kept == pending.size()) {
+            return;
+        }
+        List<OutboundMessage> dropped = pending.subList(kept, pending.size());
+        IrcMod.LOGGER.warn("Dropping {} unsent IRC messages from the last session, only {} fit in the queue",
+                dropped.size(), CAPACITY);
+        try {
+            outbox.complete(dropped);
+        } catch (IOException e) {
+            IrcMod.LOGGER.error("Failed to drop IRC messages from the outbox", e);
+        }
+    }
+
+    // False when the queue is full, so the caller can push back on the user
+    public boolean offer(OutboundMessage message) {
+        lock.lock();
+        try {
+            if (!running || queue.size() >= CAPACITY) {
+                return false;
+            }
+            if (outbox != null) {
+                try {
+                    outbox.append(message);
+                } catch (IOException e) {
+                    // Still worth sending, it just would not survive a crash
+                    IrcMod.LOGGER.error("Failed to write IRC message to the outbox", e);
+                }
+            }
+            queue.addLast(message);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setRetryListener(RetryListener listener) {
+        this.retryListener = listener;
+    }
+
+    // Cuts a retry backoff short, e.g. once another request reached the worker again
+    public void retryNow() {
+        if (backingOff) {
+            lock.lock();
+            try {
+                retryNow = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Undelivered messages stay in the outbox for the next start
+    public void stop() {
+        running = false;
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        sender.cancel(true);
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    private void drain() {
+        int failures = 0;
+        while (running) {
+            try {
+                List<OutboundMessage> batch = nextBatch(failures == 0);
+                if (batch.isEmpty()) {
+                    // Stopped while waiting
+                    continue;
+                }
+                sync();
+
+                int done = sink.deliver(batch);
+                complete(batch.subList(0, done));
+                if (done == batch.size()) {
+                    failures = 0;
+                    continue;
+                }
+
+                long delay = CircuitBreaker.backoffMs(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, failures++);
+                RetryListener listener = retryListener;
+                if (listener != null) {
+                    listener.onRetry(size(), delay);
+                }
+                awaitRetry(delay);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                IrcMod.LOGGER.error("Error sending queued IRC messages", e);
+                try {
+                    awaitRetry(CircuitBreaker.backoffMs(RETRY_BASE_DELAY_MS, RETRY_MAX_DELAY_MS, failures++));
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Group commit: one fsync covers the batch and anything queued while it was gathered
+    private void sync() {
+        if (outbox == null) {
+            return;
+        }
+        try {
+            outbox.sync();
+        } catch (IOException e) {
+            // Sending goes on, the messages just would not survive a crash
+            IrcMod.LOGGER.error("Failed to sync the IRC outbox", e);
+        }
+    }
+
+    // Waits for a message, then gives a fresh burst a short window to fill the batch. Retries go out at once.
+    // Empty once the queue is stopped
+    private List<OutboundMessage> nextBatch(boolean fresh) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (!running) {
+                    return List.of();
+                }
+                changed.await();
+            }
+            if (fresh) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(BATCH_WINDOW_MS);
+                while (queue.size() < MAX_BATCH_SIZE && running && remaining > 0) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+            }
+            List<OutboundMessage> batch = new ArrayList<>(Math.min(queue.size(), MAX_BATCH_SIZE));
+            Iterator<OutboundMessage> iterator = queue.iterator();
+            while (batch.size() < MAX_BATCH_SIZE && iterator.hasNext()) {
+                batch.add(iterator.next());
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void complete(List<OutboundMessage> done) {
+        if (done.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < done.size(); i++) {
+                queue.pollFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (outbox != null) {
+            try {
+                outbox.complete(done);
+            } catch (IOException e) {
+                // The messages are resent after a restart and the worker drops them by key
+                IrcMod.LOGGER.error("Failed to record sent IRC messages in the outbox", e);
+            }
+        }
+    }
+
+    private void awaitRetry(long delayMs) throws InterruptedException {
+        lock.lock();
+        try {
+            backingOff = true;
+            long remaining = TimeUnit.MILLISECONDS.toNanos(delayMs);
+            while (!retryNow && running && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+        } finally {
+            backingOff = false;
+            retryNow = false;
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.irc.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Callers reserve a token and sleep until it is theirs, so they are served in order without a queue. The worker
+// can pause or tighten the bucket, never loosen it
+public class RateLimiter {
+    private final double defaultRate;
+    private final double burst;
+    private final LongSupplier nanoClock;
+    private double ratePerSecond;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    public RateLimiter(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    RateLimiter(double ratePerSecond, int burst, LongSupplier nanoClock) {
+        this.defaultRate = ratePerSecond;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.nanoClock = nanoClock;
+        this.tokens = burst;
+        this.lastRefill = nanoClock.getAsLong();
+        this.pausedUntil = lastRefill;
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // Takes a token now, possibly going into debt, and returns how long the caller has to wait for it
+    synchronized long reserve() {
+        long now = nanoClock.getAsLong();
+        refill(now);
+        long wait = Math.max(0, pausedUntil - now);
+        tokens -= 1;
+        if (tokens < 0) {
+            wait = Math.max(wait, (long) (-tokens / ratePerSecond * 1e9));
+        }
+        return wait;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * ratePerSecond);
+        lastRefill = now;
+    }
+
+    // A shorter pause never cuts a longer one short
+    public synchronized void pauseFor(long millis) {
+        pausedUntil = Math.max(pausedUntil, nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    // Only quotas below the local rate take effect
+    public synchronized void applyQuota(long limit, long windowSeconds) {
+        if (limit <= 0 || windowSeconds <= 0) {
+            return;
+        }
+        refill(nanoClock.getAsLong());
+        ratePerSecond = Math.min(defaultRate, (double) limit / windowSeconds);
+    }
+
+    public synchronized long getDelayMs() {
+        long now = nanoClock.getAsLong();
+        refill(now);
+        long wait = Math.max(0, pausedUntil - now);
+        if (tokens < 1) {
+            wait = Math.max(wait, (long) ((1 - tokens) / ratePerSecond * 1e9));
+        }
+        return TimeUnit.NANOSECONDS.toMillis(wait);
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
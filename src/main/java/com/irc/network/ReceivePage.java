@@ -0,0 +1,15 @@
+package com.irc.network;
+
+// continuation is null on the last page, remaining is -1 if the worker did not say
+public record ReceivePage(int count, String continuation, long remaining, boolean unauthorized) {
+    public static final ReceivePage EMPTY = new ReceivePage(0, null, 0);
+    public static final ReceivePage UNAUTHORIZED = new ReceivePage(0, null, 0, true);
+
+    public ReceivePage(int count, String continuation, long remaining) {
+        this(count, continuation, remaining, false);
+    }
+
+    public boolean hasMore() {
+        return continuation != null;
+    }
+}
@@ -0,0 +1,91 @@
+package com.irc.network;
+
+// Open-addressing table of primitive longs; once full, adding an id evicts the oldest
+public class RecentIdSet {
+    // Marks a free slot, the (unlikely) id 0 is remapped so it can still be stored
+    private static final long FREE = 0;
+    private static final long ZERO_ID = 0x9E3779B97F4A7C15L;
+
+    private final long[] order;
+    private final long[] table;
+    private final int mask;
+    private int head;
+    private int size;
+
+    public RecentIdSet(int capacity) {
+        this.order = new long[capacity];
+        // Keep the table at most half full so probe sequences stay short
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.table = new long[tableSize];
+        this.mask = tableSize - 1;
+    }
+
+    // False if the id was already in the set
+    public synchronized boolean add(long id) {
+        if (id == FREE) {
+            id = ZERO_ID;
+        }
+        if (indexOf(id) >= 0) {
+            return false;
+        }
+
+        if (size == order.length) {
+            remove(order[head]);
+        } else {
+            size++;
+        }
+        order[head] = id;
+        head = (head + 1) % order.length;
+
+        int slot = slot(id);
+        while (table[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id;
+        return true;
+    }
+
+    public synchronized boolean contains(long id) {
+        return indexOf(id == FREE ? ZERO_ID : id) >= 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int indexOf(long id) {
+        for (int slot = slot(id); table[slot] != FREE; slot = (slot + 1) & mask) {
+            if (table[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void remove(long id) {
+        int hole = indexOf(id);
+        if (hole < 0) {
+            return;
+        }
+        // Backward-shift deletion: pull later entries of the probe chain into the hole
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            long candidate = table[next];
+            if (candidate == FREE) {
+                break;
+            }
+            int home = slot(candidate);
+            boolean between = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!between) {
+                table[hole] = candidate;
+                hole = next;
+            }
+        }
+        table[hole] = FREE;
+    }
+
+    private int slot(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+}
@@ -0,0 +1,212 @@
+package com.irc.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.irc.config.IrcConfig;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+// URI, headers and the static part of the body are encoded once per config change; requests for unchanged
+// numeric values are reused, so an idle poll allocates nothing
+public class RequestTemplate {
+    private static final Gson GSON = new Gson();
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final String url;
+    private final String action;
+    private final String sessionId;
+    private final String[] fields;
+    private String[] headers = new String[0];
+    private volatile Encoded encoded;
+    private volatile CachedRequest cached;
+
+    // prefix ends with the name of the first field, separators[i] holds ',"<field i + 1>":'
+    private record Encoded(int configVersion, URI uri, byte[] prefix, byte[][] separators) {
+    }
+
+    private record CachedRequest(Encoded encoded, long first, long second, HttpRequest request) {
+    }
+
+    public RequestTemplate(String url, String action, String sessionId, String... fields) {
+        this.url = url;
+        this.action = action;
+        this.sessionId = sessionId;
+        this.fields = fields;
+    }
+
+    public RequestTemplate withHeaders(String... headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    public HttpRequest request(long value) {
+        return request(value, 0, 1);
+    }
+
+    public HttpRequest request(long first, long second) {
+        return request(first, second, 2);
+    }
+
+    private HttpRequest request(long first, long second, int valueCount) {
+        if (valueCount != fields.length) {
+            throw new IllegalArgumentException("Template for " + action + " expects " + fields.length + " values");
+        }
+        Encoded current = encoded();
+        CachedRequest last = cached;
+        if (last != null && last.encoded() == current && last.first() == first && last.second() == second) {
+            return last.request();
+        }
+
+        int length = current.prefix().length + digits(first) + 1;
+        if (valueCount > 1) {
+            length += current.separators()[0].length + digits(second);
+        }
+        byte[] body = new byte[length];
+        int position = current.prefix().length;
+        System.arraycopy(current.prefix(), 0, body, 0, position);
+        position += digits(first);
+        writeLong(first, body, position);
+        if (valueCount > 1) {
+            byte[] separator = current.separators()[0];
+            System.arraycopy(separator, 0, body, position, separator.length);
+            position += separator.length + digits(second);
+            writeLong(second, body, position);
+        }
+        body[body.length - 1] = '}';
+
+        HttpRequest request = build(current.uri(), body);
+        cached = new CachedRequest(current, first, second, request);
+        return request;
+    }
+
+    public HttpRequest request(String value) {
+        return requestWithJson(GSON.toJson(value));
+    }
+
+    // Rarely repeated, so not cached
+    public HttpRequest request(long first, long second, String value) {
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Template for " + action + " expects " + fields.length + " values");
+        }
+        Encoded current = encoded();
+        byte[][] separators = current.separators();
+        byte[] text = GSON.toJson(value).getBytes(StandardCharsets.UTF_8);
+        int length = current.prefix().length + digits(first) + separators[0].length + digits(second)
+                + separators[1].length + text.length + 1;
+        byte[] body = new byte[length];
+        int position = current.prefix().length;
+        System.arraycopy(current.prefix(), 0, body, 0, position);
+        position += digits(first);
+        writeLong(first, body, position);
+        System.arraycopy(separators[0], 0, body, position, separators[0].length);
+        position += separators[0].length + digits(second);
+        writeLong(second, body, position);
+        System.arraycopy(separators[1], 0, body, position, separators[1].length);
+        position += separators[1].length;
+        System.arraycopy(text, 0, body, position, text.length);
+        body[body.length - 1] = '}';
+        return build(current.uri(), body);
+    }
+
+    // Already encoded JSON values, one per field in order
+    public HttpRequest requestWithJson(String... json) {
+        if (json.length != fields.length) {
+            throw new IllegalArgumentException("Template for " + action + " expects " + fields.length + " values");
+        }
+        Encoded current = encoded();
+        byte[][] values = new byte[json.length][];
+        int length = current.prefix().length + 1;
+        for (int i = 0; i < json.length; i++) {
+            values[i] = json[i].getBytes(StandardCharsets.UTF_8);
+            length += values[i].length + (i > 0 ? current.separators()[i - 1].length : 0);
+        }
+
+        byte[] body = new byte[length];
+        int position = current.prefix().length;
+        System.arraycopy(current.prefix(), 0, body, 0, position);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                byte[] separator = current.separators()[i - 1];
+                System.arraycopy(separator, 0, body, position, separator.length);
+                position += separator.length;
+            }
+            System.arraycopy(values[i], 0, body, position, values[i].length);
+            position += values[i].length;
+        }
+        body[body.length - 1] = '}';
+        return build(current.uri(), body);
+    }
+
+    private Encoded encoded() {
+        Encoded current = encoded;
+        int version = IrcConfig.getVersion();
+        if (current == null || current.configVersion() != version) {
+            JsonObject payload = new JsonObject();
+            payload.addProperty("action", action);
+            payload.addProperty("sessionId", sessionId);
+            payload.addProperty("token", IrcConfig.getDiscordToken());
+
+            // Drop the closing brace and leave the object open for the varying fields
+            String json = GSON.toJson(payload);
+            String prefix = json.substring(0, json.length() - 1) + "," + GSON.toJson(fields[0]) + ":";
+            byte[][] separators = new byte[fields.length - 1][];
+            for (int i = 1; i < fields.length; i++) {
+                separators[i - 1] = ("," + GSON.toJson(fields[i]) + ":").getBytes(StandardCharsets.UTF_8);
+            }
+            current = new Encoded(version, URI.create(url + "/api/irc"), prefix.getBytes(StandardCharsets.UTF_8),
+                    separators);
+            encoded = current;
+        }
+        return current;
+    }
+
+    private HttpRequest build(URI uri, byte[] body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(uri)
+                .header("Content-Type", "application/json")
+                .header("Accept-Encoding", Compression.ACCEPT_ENCODING)
+                .timeout(TIMEOUT);
+        if (Compression.shouldCompress(body.length)) {
+            builder.header("Content-Encoding", "gzip")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(Compression.gzip(body)));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        }
+        if (headers.length > 0) {
+            builder.headers(headers);
+        }
+        return builder.build();
+    }
+
+    private static int digits(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int digits = value < 0 ? 2 : 1;
+        for (long v = Math.abs(value); v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    // Writes the decimal digits of value so that they end just before index end
+    private static void writeLong(long value, byte[] out, int end) {
+        if (value == Long.MIN_VALUE) {
+            byte[] min = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(min, 0, out, end - min.length, min.length);
+            return;
+        }
+        int pos = end;
+        long v = Math.abs(value);
+        do {
+            out[--pos] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        if (value < 0) {
+            out[--pos] = '-';
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.irc.config;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IrcConfigTest {
+    private static final Gson GSON = new Gson();
+    private static final long TIMEOUT_MS = 5_000;
+
+    @TempDir
+    Path directory;
+    private Path configFile;
+
+    @BeforeEach
+    void load() throws IOException {
+        configFile = directory.resolve("irc-config.json");
+        IrcConfig.ConfigData config = new IrcConfig.ConfigData();
+        config.discordToken = "old-token";
+        config.verifiedAt = 1_000;
+        config.verifiedUntil = Long.MAX_VALUE;
+        write(config);
+        IrcConfig.useConfigFile(configFile);
+        IrcConfig.load();
+    }
+
+    @AfterEach
+    void flush() {
+        IrcConfig.flush();
+    }
+
+    private void write(IrcConfig.ConfigData config) throws IOException {
+        Files.writeString(configFile, GSON.toJson(config), StandardCharsets.UTF_8);
+    }
+
+    private IrcConfig.ConfigData read() throws IOException {
+        return GSON.fromJson(Files.readString(configFile, StandardCharsets.UTF_8), IrcConfig.ConfigData.class);
+    }
+
+    @Test
+    void editedTokenDropsVerification() throws IOException {
+        assertEquals(Long.MAX_VALUE, IrcConfig.getVerifiedUntil());
+
+        // Another setting edited by hand keeps the verification
+        IrcConfig.ConfigData edited = read();
+        edited.messagesPerTick = 7;
+        write(edited);
+        IrcConfig.reload(configFile);
+        assertEquals(7, IrcConfig.getMessagesPerTick());
+        assertEquals(Long.MAX_VALUE, IrcConfig.getVerifiedUntil());
+
+        // A new token pasted in without touching the verification fields
+        edited.discordToken = "new-token";
+        write(edited);
+        IrcConfig.reload(configFile);
+        assertEquals("new-token", IrcConfig.getDiscordToken());
+        assertEquals(0, IrcConfig.getVerifiedAt());
+        assertEquals(0, IrcConfig.getVerifiedUntil());
+
+        // And the file is corrected, so the next start does not trust the new token either
+        IrcConfig.flush();
+        IrcConfig.ConfigData written = read();
+        assertEquals("new-token", written.discordToken);
+        assertEquals(0, written.verifiedUntil);
+    }
+
+    @Test
+    void burstOfChangesIsWrittenOnce() throws Exception {
+        IrcConfig.setChannels(List.of("#a"));
+        IrcConfig.setChannels(List.of("#b"));
+        IrcConfig.setChannels(List.of("#c"));
+
+        // Watch the file until the burst lands; the states in between must never be written
+        Set<List<String>> seen = new LinkedHashSet<>();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!seen.contains(List.of("#c"))) {
+            assertTrue(System.currentTimeMillis() < deadline, "the config was not saved");
+            seen.add(read().channels);
+            Thread.sleep(5);
+        }
+        assertEquals(List.of(List.of(), List.of("#c")), new ArrayList<>(seen));
+    }
+
+    @Test
+    void writesReplaceTheFileAtomically() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger reads = new AtomicInteger();
+        AtomicReference<String> broken = new AtomicReference<>();
+        Thread reader = Thread.ofVirtual().start(() -> {
+            while (writing.get()) {
+                try {
+                    String json = Files.readString(configFile, StandardCharsets.UTF_8);
+                    if (GSON.fromJson(json, IrcConfig.ConfigData.class) == null) {
+                        broken.set(json);
+                    }
+                    reads.incrementAndGet();
+                } catch (IOException | JsonParseException e) {
+                    broken.set(e.toString());
+                }
+            }
+        });
+
+        // Long enough that a write in place would be caught half done
+        String padding = "#" + "x".repeat(4096);
+        for (int i = 0; i < 200; i++) {
+            IrcConfig.setChannels(List.of(padding + i));
+            IrcConfig.flush();
+        }
+        writing.set(false);
+        reader.join();
+
+        assertNull(broken.get(), "a reader saw a partly written config");
+        assertTrue(reads.get() > 0);
+        assertEquals(List.of(padding + 199), read().channels);
+        assertFalse(Files.exists(directory.resolve("irc-config.json.tmp")));
+    }
+
+    @Test
+    void ownWriteIsNotReloaded() throws IOException {
+        IrcConfig.setChannels(List.of("#a"));
+        IrcConfig.flush();
+        // Changed again before the watcher reports the first write
+        IrcConfig.setChannels(List.of("#b"));
+        int version = IrcConfig.getVersion();
+
+        IrcConfig.reload(configFile);
+        assertEquals(List.of("#b"), IrcConfig.getChannels());
+        assertEquals(version, IrcConfig.getVersion());
+
+        IrcConfig.flush();
+        assertEquals(List.of("#b"), read().channels);
+    }
+}
@@ -0,0 +1,86 @@
+package com.irc.journal;
+
+import com.irc.network.ChannelCursors;
+import com.irc.network.IrcMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageJournalTest {
+    @TempDir
+    Path directory;
+
+    private static IrcMessage message(long timestamp, String text) {
+        return new IrcMessage("Tester", text, timestamp, "session", timestamp);
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    @Test
+    void truncatedTailIsCutOff() throws IOException {
+        MessageJournal journal = MessageJournal.open(directory);
+        journal.append(message(1, "first"));
+        journal.append(message(2, "second"));
+        journal.append(message(3, "third"));
+        journal.checkpoint();
+
+        // Tear the third record: its length made it to disk, part of its payload did not
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            int position = 0;
+            for (int i = 0; i < 2; i++) {
+                channel.read(header.clear(), position);
+                position += 8 + header.flip().getInt();
+            }
+            channel.write(ByteBuffer.allocate(4), position + 20);
+        }
+
+        MessageJournal recovered = MessageJournal.open(directory);
+        assertEquals(List.of(message(1, "first"), message(2, "second")), recovered.readLast(10));
+        assertEquals(2, recovered.getCursor());
+
+        // The torn bytes are gone, so a record appended after recovery is read back normally
+        recovered.append(message(4, "fourth"));
+        recovered.checkpoint();
+        assertEquals(List.of(message(1, "first"), message(2, "second"), message(4, "fourth")),
+                MessageJournal.open(directory).readLast(10));
+    }
+
+    @Test
+    void quietChannelKeepsItsCursorAcrossSegments() throws IOException {
+        MessageJournal journal = MessageJournal.open(directory);
+        journal.append(new IrcMessage("Tester", "anyone here?", 1, "session", 1, "#quiet"));
+        // Enough default channel traffic to fill two segments
+        String text = "x".repeat(200);
+        for (int i = 2; i < 40_000; i++) {
+            journal.append(message(i, text));
+        }
+        journal.checkpoint();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertTrue(files.count() >= 3, "expected the journal to rotate twice");
+        }
+
+        MessageJournal recovered = MessageJournal.open(directory);
+        assertEquals(new ChannelCursors.Cursor(1, 1), recovered.getCursors().get("#quiet"));
+        assertEquals(39_999, recovered.getCursor());
+        // Checkpoints are not messages
+        assertEquals(List.of(message(39_998, text), message(39_999, text)), recovered.readLast(2));
+    }
+}
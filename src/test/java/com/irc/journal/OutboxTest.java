@@ -0,0 +1,155 @@
+package com.irc.journal;
+
+import com.irc.metrics.Counter;
+import com.irc.metrics.Metrics;
+import com.irc.network.OutboundMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboxTest {
+    private static final Counter SYNCS = Metrics.counter("outbox.syncs");
+
+    @TempDir
+    Path directory;
+
+    private static OutboundMessage message(int number) {
+        return new OutboundMessage("key-" + number, "#global", "message " + number);
+    }
+
+    private Path log() {
+        return directory.resolve("outbox.log");
+    }
+
+    @Test
+    void pendingMessagesSurviveARestartInOrder() throws IOException {
+        Outbox outbox = Outbox.open(directory);
+        for (int i = 1; i <= 4; i++) {
+            outbox.append(message(i));
+        }
+        outbox.complete(List.of(message(2)));
+        outbox.sync();
+        // No close: the process died after the sync
+        Outbox recovered = Outbox.open(directory);
+        assertEquals(List.of(message(1), message(3), message(4)), recovered.getPending());
+
+        // Completing a message twice, e.g. after a resend, writes nothing
+        long size = Files.size(log());
+        recovered.complete(List.of(message(2)));
+        assertEquals(size, Files.size(log()));
+        recovered.close();
+        outbox.close();
+    }
+
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        Outbox outbox = Outbox.open(directory);
+        outbox.append(message(1));
+        outbox.append(message(2));
+        outbox.close();
+        long complete = Files.size(log());
+
+        // A record whose header made it to disk but not all of its payload
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(12).putInt(100).putInt(0).putInt(42).flip());
+        }
+
+        Outbox recovered = Outbox.open(directory);
+        assertEquals(List.of(message(1), message(2)), recovered.getPending());
+        assertEquals(complete, Files.size(log()));
+
+        // Appends after recovery follow the last good record, not the torn bytes
+        recovered.append(message(3));
+        recovered.close();
+        Outbox reopened = Outbox.open(directory);
+        assertEquals(List.of(message(1), message(2), message(3)), reopened.getPending());
+        reopened.close();
+    }
+
+    @Test
+    void corruptedRecordEndsTheLog() throws IOException {
+        Outbox outbox = Outbox.open(directory);
+        outbox.append(message(1));
+        outbox.close();
+        long first = Files.size(log());
+        outbox = Outbox.open(directory);
+        outbox.append(message(2));
+        outbox.close();
+
+        // Flip a payload byte of the second record, its checksum no longer matches
+        try (FileChannel channel = FileChannel.open(log(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, first + 10);
+            value.put(0, (byte) ~value.get(0));
+            channel.write(value.flip(), first + 10);
+        }
+
+        Outbox recovered = Outbox.open(directory);
+        assertEquals(List.of(message(1)), recovered.getPending());
+        assertEquals(first, Files.size(log()));
+        recovered.close();
+    }
+
+    @Test
+    void oneSyncCoversEveryAppendBeforeIt() throws IOException {
+        Outbox outbox = Outbox.open(directory);
+        long before = SYNCS.get();
+        for (int i = 1; i <= 10; i++) {
+            outbox.append(message(i));
+        }
+        outbox.sync();
+        assertEquals(before + 1, SYNCS.get());
+
+        // Nothing new to force
+        outbox.sync();
+        assertEquals(before + 1, SYNCS.get());
+
+        // Done records ride along with the next sync instead of forcing one of their own
+        outbox.complete(List.of(message(1)));
+        assertEquals(before + 1, SYNCS.get());
+        outbox.append(message(11));
+        outbox.sync();
+        assertEquals(before + 2, SYNCS.get());
+        outbox.close();
+    }
+
+    @Test
+    void compactionKeepsOnlyPendingMessages() throws IOException {
+        // Left behind by a compaction that was interrupted
+        Path temporary = directory.resolve("outbox.log.tmp");
+        Files.writeString(temporary, "partial");
+        Outbox outbox = Outbox.open(directory);
+        assertFalse(Files.exists(temporary));
+
+        outbox.append(message(0));
+        String text = "x".repeat(1000);
+        List<OutboundMessage> sent = new ArrayList<>();
+        for (int i = 1; i <= 400; i++) {
+            OutboundMessage message = new OutboundMessage("key-" + i, "#global", text);
+            outbox.append(message);
+            sent.add(message);
+        }
+        outbox.complete(sent);
+        assertTrue(Files.size(log()) < 1024, "the log was not compacted: " + Files.size(log()) + " bytes");
+        assertEquals(List.of(message(0)), outbox.getPending());
+
+        // The compacted log is appended to like the original one
+        outbox.append(message(401));
+        outbox.close();
+        Outbox reopened = Outbox.open(directory);
+        assertEquals(List.of(message(0), message(401)), reopened.getPending());
+        reopened.close();
+    }
+}
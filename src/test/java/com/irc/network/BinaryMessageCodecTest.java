@@ -0,0 +1,204 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryMessageCodecTest {
+    private static IrcMessage message(String player, String text, long timestamp, long id) {
+        return new IrcMessage(player, text, timestamp, "session-" + player, id);
+    }
+
+    private static List<IrcMessage> roundTrip(List<IrcMessage> messages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+        for (IrcMessage message : messages) {
+            encoder.write(message, out);
+        }
+        return decode(out.toByteArray());
+    }
+
+    private static List<IrcMessage> decode(byte[] body) throws IOException {
+        List<IrcMessage> decoded = new ArrayList<>();
+        new BinaryMessageCodec.Decoder().readAll(new ByteArrayInputStream(body), decoded::add);
+        return decoded;
+    }
+
+    // A single frame of the given type and payload, with a correct length prefix
+    private static byte[] frame(int type, int... payload) {
+        byte[] frame = new byte[payload.length + 2];
+        frame[0] = (byte) (payload.length + 1);
+        frame[1] = (byte) type;
+        for (int i = 0; i < payload.length; i++) {
+            frame[i + 2] = (byte) payload[i];
+        }
+        return frame;
+    }
+
+    @Test
+    void roundTripsMessages() throws IOException {
+        List<IrcMessage> messages = List.of(
+                message("Alice", "hello", 1_700_000_000_000L, 1),
+                message("Bob", "hi", 1_700_000_000_500L, 2),
+                // Timestamps may go backwards, the delta is zigzag encoded
+                message("Alice", "again", 1_699_999_999_000L, -5));
+        assertEquals(messages, roundTrip(messages));
+    }
+
+    @Test
+    void roundTripsEmptyUnicodeAndLongStrings() throws IOException {
+        List<IrcMessage> messages = List.of(
+                message("", "", 0, 0),
+                message("Ünïcødé", "日本語 😀 emoji and a \u0000 nul", 1, Long.MAX_VALUE),
+                message("Carol", "x".repeat(100_000), 2, Long.MIN_VALUE));
+        assertEquals(messages, roundTrip(messages));
+    }
+
+    @Test
+    void roundTripsChannels() throws IOException {
+        List<IrcMessage> messages = List.of(
+                new IrcMessage("Alice", "in general", 1, "s", 1),
+                new IrcMessage("Alice", "in builds", 2, "s", 2, "#builds"),
+                new IrcMessage("Bob", "builds again", 3, "s", 3, "#builds"));
+        List<IrcMessage> decoded = roundTrip(messages);
+        assertEquals(messages, decoded);
+        assertEquals(Channels.DEFAULT, decoded.get(0).channel());
+    }
+
+    @Test
+    void normalizesChannelNames() throws IOException {
+        List<IrcMessage> decoded = roundTrip(List.of(
+                new IrcMessage("Alice", "a", 1, "s", 1, "builds"),
+                new IrcMessage("Alice", "b", 2, "s", 2, "#Global"),
+                new IrcMessage("Alice", "c", 3, "s", 3, " #BUILDS "),
+                new IrcMessage("Alice", "d", 4, "s", 4, "builds"),
+                // Nothing can be joined under an invalid name, it is passed on to be dropped
+                new IrcMessage("Alice", "e", 5, "s", 5, "#no spaces")));
+        assertEquals(List.of("#builds", Channels.DEFAULT, "#builds", "#builds", "#no spaces"),
+                decoded.stream().map(IrcMessage::channel).toList());
+    }
+
+    @Test
+    void repeatedStringsBecomeReferences() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+        encoder.write(message("AVeryLongPlayerName", "a", 1, 1), out);
+        int first = out.size();
+        encoder.write(message("AVeryLongPlayerName", "a", 2, 2), out);
+        assertTrue(out.size() - first < first / 2, "second frame should reuse the player and session strings");
+    }
+
+    @Test
+    void readsMetaFramesAndHeartbeats() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryMessageCodec.Encoder encoder = new BinaryMessageCodec.Encoder();
+        encoder.writeHeartbeat(out);
+        encoder.write(message("Alice", "hello", 1, 1), out);
+        encoder.writeHeartbeat(out);
+        Map<String, String> meta = new LinkedHashMap<>();
+        meta.put("continuation", "page-2");
+        meta.put("remaining", "42");
+        encoder.writeMeta(meta, out);
+
+        BinaryMessageCodec.Decoder decoder = new BinaryMessageCodec.Decoder();
+        List<IrcMessage> decoded = new ArrayList<>();
+        assertEquals(1, decoder.readAll(new ByteArrayInputStream(out.toByteArray()), decoded::add));
+        assertEquals(1, decoded.size());
+        assertEquals("page-2", decoder.getMeta("continuation"));
+        assertEquals(42, decoder.getRemaining());
+    }
+
+    @Test
+    void missingRemainingIsUnknown() throws IOException {
+        BinaryMessageCodec.Decoder decoder = new BinaryMessageCodec.Decoder();
+        decoder.readAll(new ByteArrayInputStream(new byte[0]), message -> {
+        });
+        assertNull(decoder.getMeta("continuation"));
+        assertEquals(-1, decoder.getRemaining());
+    }
+
+    @Test
+    void rejectsBadRemaining() throws IOException {
+        for (String remaining : List.of("lots", "-3", "99999999999999999999")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new BinaryMessageCodec.Encoder().writeMeta(Map.of("remaining", remaining), out);
+            BinaryMessageCodec.Decoder decoder = new BinaryMessageCodec.Decoder();
+            decoder.readAll(new ByteArrayInputStream(out.toByteArray()), message -> {
+            });
+            assertThrows(IOException.class, decoder::getRemaining, remaining);
+        }
+    }
+
+    @Test
+    void skipsUnknownFrameTypes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(frame(99, 1, 2, 3));
+        new BinaryMessageCodec.Encoder().write(message("Alice", "hello", 1, 1), out);
+        assertEquals(List.of(message("Alice", "hello", 1, 1)), decode(out.toByteArray()));
+    }
+
+    @Test
+    void rejectsTruncatedFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryMessageCodec.Encoder().write(message("Alice", "hello", 1, 1), out);
+        byte[] body = out.toByteArray();
+        for (int length = 1; length < body.length; length++) {
+            byte[] truncated = Arrays.copyOf(body, length);
+            assertThrows(EOFException.class, () -> decode(truncated), "cut after " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsFramesEndingInsideTheirPayload() {
+        // A message frame that stops after its timestamp
+        assertThrows(EOFException.class, () -> decode(frame(BinaryMessageCodec.FRAME_MESSAGE, 2)));
+        // A meta frame whose value is missing
+        assertThrows(EOFException.class, () -> decode(frame(BinaryMessageCodec.FRAME_META, 1, 'k')));
+    }
+
+    @Test
+    void rejectsMalformedVarints() {
+        // Frame length with more than 64 bits of continuation bytes
+        byte[] endless = new byte[12];
+        Arrays.fill(endless, (byte) 0x80);
+        assertThrows(IOException.class, () -> decode(endless));
+
+        // Frame length that decodes to a negative number
+        byte[] negativeFrame = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertThrows(IOException.class, () -> decode(negativeFrame));
+
+        // Frame length over the limit
+        assertThrows(IOException.class, () -> decode(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01}));
+
+        // String length inside a frame that decodes to a negative number
+        assertThrows(IOException.class, () -> decode(frame(BinaryMessageCodec.FRAME_META,
+                0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01)));
+
+        // Varint inside a frame that never ends
+        assertThrows(IOException.class, () -> decode(frame(BinaryMessageCodec.FRAME_MESSAGE,
+                0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80)));
+    }
+
+    @Test
+    void rejectsUnknownStringReferences() {
+        // Timestamp 0, id 0, then a player reference to an empty string table
+        assertThrows(IOException.class, () -> decode(frame(BinaryMessageCodec.FRAME_MESSAGE, 0, 0, 5)));
+        // Same with a reference that decodes to a negative number
+        assertThrows(IOException.class, () -> decode(frame(BinaryMessageCodec.FRAME_MESSAGE, 0, 0,
+                0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01)));
+    }
+}
@@ -0,0 +1,71 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChannelCursorsTest {
+    @Test
+    void tiesAtEqualTimestampsAreBrokenById() {
+        ChannelCursors cursors = new ChannelCursors();
+        cursors.advance(Channels.DEFAULT, 100, 5);
+
+        // Same millisecond, lower id: already behind the cursor
+        cursors.advance(Channels.DEFAULT, 100, 3);
+        assertEquals(new ChannelCursors.Cursor(100, 5), cursors.get(Channels.DEFAULT));
+        // Same millisecond, higher id: a message a timestamp-only cursor would skip
+        cursors.advance(Channels.DEFAULT, 100, 7);
+        assertEquals(new ChannelCursors.Cursor(100, 7), cursors.get(Channels.DEFAULT));
+        // An older timestamp never moves the cursor back, whatever its id
+        cursors.advance(Channels.DEFAULT, 99, Long.MAX_VALUE);
+        assertEquals(new ChannelCursors.Cursor(100, 7), cursors.get(Channels.DEFAULT));
+        cursors.advance(Channels.DEFAULT, 101, Long.MIN_VALUE);
+        assertEquals(new ChannelCursors.Cursor(101, Long.MIN_VALUE), cursors.get(Channels.DEFAULT));
+    }
+
+    @Test
+    void cursorIsNotBeforeItself() {
+        ChannelCursors.Cursor cursor = new ChannelCursors.Cursor(100, 5);
+        assertFalse(cursor.isBefore(100, 5));
+        assertTrue(cursor.isBefore(100, 6));
+        assertFalse(cursor.isBefore(99, 6));
+        assertTrue(cursor.isBefore(101, 0));
+    }
+
+    @Test
+    void channelsAdvanceIndependently() {
+        ChannelCursors cursors = new ChannelCursors();
+        cursors.join("#builds");
+        assertTrue(cursors.advance("#builds", 50, 1));
+        assertTrue(cursors.advance(Channels.DEFAULT, 10, 2));
+        assertEquals(new ChannelCursors.Cursor(50, 1), cursors.get("#builds"));
+        assertEquals(new ChannelCursors.Cursor(10, 2), cursors.get(Channels.DEFAULT));
+
+        // Messages of channels that are not joined, or no longer, are refused
+        assertFalse(cursors.advance("#other", 60, 1));
+        assertTrue(cursors.part("#builds"));
+        assertFalse(cursors.advance("#builds", 60, 1));
+        assertFalse(cursors.part(Channels.DEFAULT));
+    }
+
+    @Test
+    void backgroundChannelsAreFetchedOnlyAfterASuccessfulRequest() {
+        ChannelCursors cursors = new ChannelCursors();
+        assertNull(cursors.vector(false));
+        cursors.join("#builds");
+        cursors.advance("#builds", 50, 1);
+
+        assertEquals("[[\"#builds\",50,1]]", cursors.vector(false));
+        // The request failed, so the channel is still due
+        assertEquals("[[\"#builds\",50,1]]", cursors.vector(false));
+        cursors.markFetched();
+        assertNull(cursors.vector(false));
+        // Unless every channel is asked for, or it becomes the active one
+        assertEquals("[[\"#builds\",50,1]]", cursors.vector(true));
+        cursors.setActive("#builds");
+        assertEquals("[[\"#builds\",50,1]]", cursors.vector(false));
+    }
+}
@@ -0,0 +1,96 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HttpTransportTest {
+    private static final long NOW = Instant.parse("2026-03-01T12:00:00Z").toEpochMilli();
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private RateLimiter limiter() {
+        return new RateLimiter(2, 3, nanos::get);
+    }
+
+    private static HttpHeaders headers(String... namesAndValues) {
+        Map<String, List<String>> map = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            map.put(namesAndValues[i], List.of(namesAndValues[i + 1]));
+        }
+        return HttpHeaders.of(map, (name, value) -> true);
+    }
+
+    private static String httpDate(long epochMillis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(epochMillis).atOffset(ZoneOffset.UTC));
+    }
+
+    @Test
+    void retryAfterInDeltaSeconds() {
+        assertEquals(120_000, HttpTransport.retryAfterMs("120", NOW));
+        assertEquals(0, HttpTransport.retryAfterMs(" 0 ", NOW));
+        assertEquals(0, HttpTransport.retryAfterMs("-5", NOW));
+        assertEquals(-1, HttpTransport.retryAfterMs(null, NOW));
+        assertEquals(-1, HttpTransport.retryAfterMs("", NOW));
+        assertEquals(-1, HttpTransport.retryAfterMs("soon", NOW));
+    }
+
+    @Test
+    void retryAfterAsHttpDate() {
+        assertEquals(90_000, HttpTransport.retryAfterMs(httpDate(NOW + 90_000), NOW));
+        assertEquals(90_000, HttpTransport.retryAfterMs("Sun, 1 Mar 2026 12:01:30 GMT", NOW));
+        // A date in the past means right away
+        assertEquals(0, HttpTransport.retryAfterMs(httpDate(NOW - 5_000), NOW));
+        assertEquals(-1, HttpTransport.retryAfterMs("Sun, 31 Feb 2026 25:00:00 GMT", NOW));
+    }
+
+    @Test
+    void retryAfterPausesOnlyThrottledResponses() {
+        RateLimiter limiter = limiter();
+        HttpTransport.applyRateLimits(200, headers("Retry-After", "2"), limiter);
+        assertEquals(0, limiter.getDelayMs());
+        HttpTransport.applyRateLimits(429, headers("Retry-After", "2"), limiter);
+        assertEquals(2_000, limiter.getDelayMs());
+
+        // Capped, a worker asking for an hour does not silence the lane that long
+        RateLimiter unavailable = limiter();
+        HttpTransport.applyRateLimits(503, headers("Retry-After", "3600"), unavailable);
+        assertEquals(5 * 60_000, unavailable.getDelayMs());
+    }
+
+    @Test
+    void rateLimitPolicyTightensTheRate() {
+        RateLimiter limiter = limiter();
+        HttpTransport.applyRateLimits(200, headers("RateLimit-Policy", "30;w=60"), limiter);
+        assertEquals(0.5, limiter.getRatePerSecond());
+
+        // Only the first policy counts
+        RateLimiter first = limiter();
+        HttpTransport.applyRateLimits(200, headers("RateLimit-Policy", "60;w=60, 10;w=60"), first);
+        assertEquals(1, first.getRatePerSecond());
+
+        for (String malformed : List.of("abc;w=60", "30;w=soon", "30", "")) {
+            RateLimiter ignored = limiter();
+            HttpTransport.applyRateLimits(200, headers("RateLimit-Policy", malformed), ignored);
+            assertEquals(2, ignored.getRatePerSecond(), malformed);
+        }
+    }
+
+    @Test
+    void exhaustedQuotaHoldsTheLaneUntilReset() {
+        RateLimiter limiter = limiter();
+        HttpTransport.applyRateLimits(200, headers("RateLimit-Remaining", "3", "RateLimit-Reset", "5"), limiter);
+        assertEquals(0, limiter.getDelayMs());
+        HttpTransport.applyRateLimits(200, headers("RateLimit-Remaining", "0", "RateLimit-Reset", "5"), limiter);
+        assertEquals(5_000, limiter.getDelayMs());
+    }
+}
@@ -0,0 +1,115 @@
+package com.irc.network;
+
+import com.google.gson.Gson;
+import com.irc.config.IrcConfig;
+import com.irc.loadtest.StandInWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IrcWebSocketTest {
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private StandInWorker worker;
+    private IrcClient client;
+    private final BlockingQueue<IrcMessage> received = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<OutboundMessage>> delivered = new LinkedBlockingQueue<>();
+    private CompletableFuture<IrcClient.StreamResult> stream;
+
+    @BeforeEach
+    void start(@TempDir Path directory) throws Exception {
+        worker = new StandInWorker(0, StandInWorker.DEFAULT_PAGE_SIZE);
+        IrcConfig.ConfigData config = new IrcConfig.ConfigData();
+        config.workersUrl = worker.getUrl();
+        config.discordToken = "Tester";
+        config.streamingEnabled = true;
+        config.webSocketEnabled = true;
+        config.journalEnabled = false;
+        config.metricsDumpIntervalSeconds = 0;
+        Path configFile = directory.resolve("irc-config.json");
+        Files.writeString(configFile, new Gson().toJson(config), StandardCharsets.UTF_8);
+        IrcConfig.useConfigFile(configFile);
+        IrcConfig.load();
+
+        client = new IrcClient(worker.getUrl());
+        client.setDeliveryListener(new IrcClient.DeliveryListener() {
+            @Override
+            public void onDelivered(List<OutboundMessage> messages) {
+                delivered.add(List.copyOf(messages));
+            }
+
+            @Override
+            public void onRejected(OutboundMessage message, String reason) {
+            }
+
+            @Override
+            public void onDelayed(int queued, long retryInMs, boolean throttled) {
+            }
+        });
+
+        // The worker pushes its one message once the hello is in, so the socket is in use from then on
+        worker.preload(1);
+        stream = CompletableFuture.supplyAsync(() -> client.openWebSocket(0, 0, null, received::add));
+        assertNotNull(received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), "preloaded message was not pushed");
+    }
+
+    @AfterEach
+    void stop() {
+        client.shutdown();
+        worker.close();
+    }
+
+    @Test
+    void sendIsAckedAndPushedBack() throws Exception {
+        client.sendMessage("over the socket");
+
+        List<OutboundMessage> batch = delivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(batch, "message was not acked");
+        assertEquals("over the socket", batch.get(0).text());
+        IrcMessage echoed = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(echoed, "message was not pushed back");
+        assertEquals("over the socket", echoed.message());
+
+        Map<String, Long> counts = worker.getRequestCounts();
+        assertEquals(1L, counts.get("ws.send"));
+        assertNull(counts.get("send"), "nothing should go over HTTP");
+        assertNull(counts.get("sendBatch"), "nothing should go over HTTP");
+        assertFalse(stream.isDone());
+    }
+
+    @Test
+    void fallsBackToHttpWhenTheSocketDrops() throws Exception {
+        // The worker stores the message, then drops the connection instead of acking it
+        worker.setFaults(new StandInWorker.Faults(0, 0, 0, 0, 0, 1));
+        client.sendMessage("dropped");
+
+        List<OutboundMessage> batch = delivered.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(batch, "message was not delivered over HTTP");
+        assertEquals("dropped", batch.get(0).text());
+        assertEquals(IrcClient.StreamResult.CLOSED, stream.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Map<String, Long> counts = worker.getRequestCounts();
+        assertEquals(1L, counts.get("ws.send"));
+        assertEquals(1L, counts.get("fault.drop"));
+        assertEquals(1L, counts.get("send"));
+        // Resent with the same key, so the worker keeps a single copy
+        assertEquals(1L, counts.get("duplicate"));
+        assertEquals(2, worker.getMessageCount());
+    }
+}
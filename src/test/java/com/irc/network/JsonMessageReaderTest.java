@@ -0,0 +1,72 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JsonMessageReaderTest {
+    private static List<IrcMessage> readEvent(String event) throws IOException {
+        List<IrcMessage> messages = new ArrayList<>();
+        JsonMessageReader.readEvent(event, messages::add);
+        return messages;
+    }
+
+    @Test
+    void readsResponsePages() throws IOException {
+        List<IrcMessage> messages = new ArrayList<>();
+        ReceivePage page = JsonMessageReader.readResponse(new StringReader("""
+                {"messages": [
+                    {"player": "Alice", "message": "hi", "timestamp": 1, "sessionId": "s", "id": "7"},
+                    {"player": "Bob", "timestamp": 2},
+                    {"player": "Bob", "message": "hey", "timestamp": 3, "channel": "#builds", "id": "8"}
+                ], "continuation": "", "remaining": 4}
+                """), messages::add);
+        assertEquals(List.of(new IrcMessage("Alice", "hi", 1, "s", 7),
+                new IrcMessage("Bob", "hey", 3, "", 8, "#builds")), messages);
+        assertEquals(2, page.count());
+        // An empty continuation means there is none
+        assertNull(page.continuation());
+        assertEquals(4, page.remaining());
+    }
+
+    @Test
+    void normalizesChannelNames() throws IOException {
+        String event = """
+                {"messages": [
+                    {"player": "Alice", "message": "a", "timestamp": 1, "id": "1", "channel": "builds"},
+                    {"player": "Alice", "message": "b", "timestamp": 2, "id": "2", "channel": "#Builds"},
+                    {"player": "Alice", "message": "c", "timestamp": 3, "id": "3", "channel": "#Global"},
+                    {"player": "Alice", "message": "d", "timestamp": 4, "id": "4", "channel": ""},
+                    {"player": "Alice", "message": "e", "timestamp": 5, "id": "5", "channel": "#no spaces"}
+                ]}
+                """;
+        assertEquals(List.of("#builds", "#builds", Channels.DEFAULT, Channels.DEFAULT, "#no spaces"),
+                readEvent(event).stream().map(IrcMessage::channel).toList());
+    }
+
+    @Test
+    void derivedIdsUseTheNormalizedChannel() throws IOException {
+        // Without a server id the id comes from the content, so the spelling of the channel must not change it
+        IrcMessage plain = readEvent("""
+                {"player": "Alice", "message": "hi", "timestamp": 1, "sessionId": "s", "channel": "#builds"}
+                """).get(0);
+        IrcMessage spelled = readEvent("""
+                {"player": "Alice", "message": "hi", "timestamp": 1, "sessionId": "s", "channel": "Builds"}
+                """).get(0);
+        assertEquals(plain, spelled);
+
+        IrcMessage unnamed = readEvent("""
+                {"player": "Alice", "message": "hi", "timestamp": 1, "sessionId": "s"}
+                """).get(0);
+        IrcMessage global = readEvent("""
+                {"player": "Alice", "message": "hi", "timestamp": 1, "sessionId": "s", "channel": "#GLOBAL"}
+                """).get(0);
+        assertEquals(unnamed, global);
+    }
+}
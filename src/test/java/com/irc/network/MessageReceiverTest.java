@@ -0,0 +1,165 @@
+package com.irc.network;
+
+import com.google.gson.Gson;
+import com.irc.config.IrcConfig;
+import com.irc.loadtest.StandInWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageReceiverTest {
+    private static final long POLL_MIN_INTERVAL_MS = 100;
+    private static final long POLL_MAX_INTERVAL_MS = 200;
+    private static final long UNVERIFIED_RECHECK_MS = 1_000;
+    private static final long TIMEOUT_MS = 10_000;
+    private static final int BACKLOG = 100_000;
+
+    @TempDir
+    Path directory;
+    private StandInWorker worker;
+    private IrcClient client;
+    private MessageReceiver receiver;
+    private final List<IrcMessage> received = new ArrayList<>();
+
+    @BeforeEach
+    void startWorker() throws Exception {
+        worker = new StandInWorker(0, StandInWorker.DEFAULT_PAGE_SIZE);
+    }
+
+    private void start(Consumer<IrcConfig.ConfigData> configure) throws Exception {
+        IrcConfig.ConfigData config = new IrcConfig.ConfigData();
+        config.workersUrl = worker.getUrl();
+        config.discordToken = "Tester";
+        config.streamingEnabled = false;
+        config.webSocketEnabled = false;
+        config.pollMinIntervalMs = POLL_MIN_INTERVAL_MS;
+        config.pollMaxIntervalMs = POLL_MAX_INTERVAL_MS;
+        config.journalEnabled = false;
+        config.metricsDumpIntervalSeconds = 0;
+        configure.accept(config);
+        Path configFile = directory.resolve("irc-config.json");
+        Files.writeString(configFile, new Gson().toJson(config), StandardCharsets.UTF_8);
+        IrcConfig.useConfigFile(configFile);
+        IrcConfig.load();
+
+        client = new IrcClient(worker.getUrl());
+        receiver = new MessageReceiver(client, null, UNVERIFIED_RECHECK_MS);
+        receiver.addListener(message -> {
+            synchronized (received) {
+                received.add(message);
+            }
+        });
+        receiver.start();
+    }
+
+    @AfterEach
+    void stop() {
+        if (receiver != null) {
+            receiver.stop();
+            client.shutdown();
+        }
+        worker.close();
+    }
+
+    private long receives() {
+        return worker.getRequestCounts().getOrDefault("receive", 0L);
+    }
+
+    private int receivedCount() {
+        synchronized (received) {
+            return received.size();
+        }
+    }
+
+    private static void await(BooleanSupplier condition, long timeoutMs, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(20);
+        }
+    }
+
+    // Received in (timestamp, id) order, each message once
+    private List<Long> receivedIds() {
+        synchronized (received) {
+            for (int i = 1; i < received.size(); i++) {
+                IrcMessage previous = received.get(i - 1);
+                IrcMessage message = received.get(i);
+                assertTrue(new ChannelCursors.Cursor(previous.timestamp(), previous.id())
+                        .isBefore(message.timestamp(), message.id()), "out of order or repeated at " + i);
+            }
+            return received.stream().map(IrcMessage::id).toList();
+        }
+    }
+
+    @Test
+    void acceptedTokenResumesNormalPolling() throws Exception {
+        worker.setFaults(new StandInWorker.Faults(0, 0, 0, 1, 0, 0));
+        start(config -> {
+        });
+        await(() -> "waiting for verification".equals(receiver.getHealth()), TIMEOUT_MS,
+                "a 401 did not pause receiving");
+
+        // Held back, only the rare recheck goes out
+        long held = receives();
+        Thread.sleep(UNVERIFIED_RECHECK_MS / 2);
+        assertTrue(receives() - held <= 1, "receives were not held back while unverified");
+
+        worker.setFaults(StandInWorker.Faults.NONE);
+        await(() -> "ok".equals(receiver.getHealth()), TIMEOUT_MS,
+                "a successful receive did not resume receiving");
+
+        // Several unverified recheck intervals' worth of polls at the normal cadence
+        long resumed = receives();
+        Thread.sleep(2 * UNVERIFIED_RECHECK_MS);
+        long polls = receives() - resumed;
+        assertTrue(polls >= 2 * UNVERIFIED_RECHECK_MS / POLL_MAX_INTERVAL_MS / 2,
+                "polled only " + polls + " times after the token was accepted again");
+        assertEquals("ok", receiver.getHealth());
+    }
+
+    @Test
+    void largeBacklogIsPagedWithoutGapsOrDuplicates() throws Exception {
+        // Three messages per millisecond put page boundaries inside a millisecond; failed pages make the next
+        // poll resume from the (timestamp, id) cursor instead of the continuation
+        worker.preload(BACKLOG, 3);
+        worker.setFaults(new StandInWorker.Faults(0, 0, 0.05, 0, 0, 0));
+        start(config -> config.catchUpMaxMessages = 2L * BACKLOG);
+
+        await(() -> receivedCount() >= BACKLOG, 6 * TIMEOUT_MS, "the backlog was not received");
+        // Anything after the last page would be a duplicate
+        Thread.sleep(5 * POLL_MAX_INTERVAL_MS);
+        assertEquals(LongStream.rangeClosed(1, BACKLOG).boxed().toList(), receivedIds());
+        assertTrue(worker.getRequestCounts().getOrDefault("fault.500", 0L) > 0, "no page failed");
+    }
+
+    @Test
+    void oversizedBacklogSkipsToTheLatest() throws Exception {
+        worker.preload(BACKLOG);
+        start(config -> {
+            config.catchUpMaxMessages = 5_000;
+            config.catchUpLatestCount = 100;
+        });
+
+        // The first page goes out once it holds more than a skip would show, then the latest messages
+        int firstPage = StandInWorker.DEFAULT_PAGE_SIZE;
+        await(() -> receivedCount() >= firstPage + 100, TIMEOUT_MS, "the latest messages were not received");
+        Thread.sleep(5 * POLL_MAX_INTERVAL_MS);
+        List<Long> expected = new ArrayList<>(LongStream.rangeClosed(1, firstPage).boxed().toList());
+        expected.addAll(LongStream.rangeClosed(BACKLOG - 99, BACKLOG).boxed().toList());
+        assertEquals(expected, receivedIds());
+    }
+}
@@ -0,0 +1,51 @@
+package com.irc.network;
+
+import com.irc.journal.Outbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class OutboundQueueTest {
+    private static final int CAPACITY = 256;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoredBacklogIsCappedLikeOffers() throws IOException {
+        Outbox outbox = Outbox.open(directory);
+        for (int i = 0; i < CAPACITY + 50; i++) {
+            outbox.append(new OutboundMessage("key-" + i, Channels.DEFAULT, "message " + i));
+        }
+        outbox.close();
+
+        // Nothing is delivered, so what the queue restored stays in it
+        CountDownLatch never = new CountDownLatch(1);
+        Outbox reopened = Outbox.open(directory);
+        OutboundQueue queue = new OutboundQueue(reopened, batch -> {
+            never.await();
+            return 0;
+        });
+        try {
+            assertEquals(CAPACITY, queue.size());
+            assertFalse(queue.offer(OutboundMessage.create(Channels.DEFAULT, "one more")));
+            // The oldest are kept, the rest are gone from the outbox for good
+            List<OutboundMessage> pending = reopened.getPending();
+            assertEquals(CAPACITY, pending.size());
+            assertEquals("key-0", pending.get(0).key());
+            assertEquals("key-" + (CAPACITY - 1), pending.get(CAPACITY - 1).key());
+        } finally {
+            queue.stop();
+        }
+        Outbox restarted = Outbox.open(directory);
+        assertEquals(CAPACITY, restarted.size());
+        restarted.close();
+    }
+}
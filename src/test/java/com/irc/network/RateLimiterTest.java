@@ -0,0 +1,85 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RateLimiterTest {
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private RateLimiter limiter(double ratePerSecond, int burst) {
+        return new RateLimiter(ratePerSecond, burst, now::get);
+    }
+
+    private void advanceMs(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static long ms(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Test
+    void burstIsFreeThenTokensArriveAtTheRate() {
+        RateLimiter limiter = limiter(2, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+        // Each caller in debt waits for its own token, so they are served in order
+        assertEquals(500, ms(limiter.reserve()));
+        assertEquals(1000, ms(limiter.reserve()));
+        assertEquals(1500, limiter.getDelayMs());
+
+        advanceMs(1000);
+        assertEquals(500, limiter.getDelayMs());
+        advanceMs(500);
+        assertEquals(0, limiter.reserve());
+    }
+
+    @Test
+    void refillStopsAtTheBurst() {
+        RateLimiter limiter = limiter(2, 3);
+        advanceMs(TimeUnit.HOURS.toMillis(1));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.reserve());
+        }
+        assertEquals(500, ms(limiter.reserve()));
+    }
+
+    @Test
+    void shorterPauseDoesNotCutALongerOneShort() {
+        RateLimiter limiter = limiter(2, 3);
+        limiter.pauseFor(1000);
+        limiter.pauseFor(200);
+        assertEquals(1000, limiter.getDelayMs());
+
+        advanceMs(600);
+        assertEquals(400, ms(limiter.reserve()));
+        advanceMs(400);
+        assertEquals(0, limiter.getDelayMs());
+    }
+
+    @Test
+    void quotaOnlyTightensTheRate() {
+        RateLimiter limiter = limiter(2, 3);
+        limiter.applyQuota(1000, 1);
+        assertEquals(2, limiter.getRatePerSecond());
+        limiter.applyQuota(0, 60);
+        limiter.applyQuota(30, 0);
+        assertEquals(2, limiter.getRatePerSecond());
+
+        limiter.applyQuota(30, 60);
+        assertEquals(0.5, limiter.getRatePerSecond());
+        for (int i = 0; i < 3; i++) {
+            limiter.reserve();
+        }
+        assertEquals(2000, ms(limiter.reserve()));
+
+        // A looser quota later restores up to the local rate, never beyond
+        limiter.applyQuota(120, 60);
+        assertEquals(2, limiter.getRatePerSecond());
+    }
+}
@@ -0,0 +1,83 @@
+package com.irc.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecentIdSetTest {
+    @Test
+    void rejectsIdsItHolds() {
+        RecentIdSet ids = new RecentIdSet(4);
+        assertTrue(ids.add(7));
+        assertFalse(ids.add(7));
+        // 0 marks free slots inside, it is still an id like any other
+        assertFalse(ids.contains(0));
+        assertTrue(ids.add(0));
+        assertFalse(ids.add(0));
+        assertTrue(ids.contains(0));
+        assertEquals(2, ids.size());
+    }
+
+    @Test
+    void evictsInInsertionOrder() {
+        RecentIdSet ids = new RecentIdSet(3);
+        ids.add(1);
+        ids.add(2);
+        ids.add(3);
+        // A duplicate does not make an id any younger
+        assertFalse(ids.add(1));
+
+        ids.add(4);
+        assertFalse(ids.contains(1));
+        assertTrue(ids.contains(2) && ids.contains(3) && ids.contains(4));
+        ids.add(5);
+        assertFalse(ids.contains(2));
+        assertEquals(3, ids.size());
+    }
+
+    @Test
+    void evictedIdCanBeAddedAgain() {
+        RecentIdSet ids = new RecentIdSet(2);
+        ids.add(1);
+        ids.add(2);
+        ids.add(3);
+        assertFalse(ids.contains(1));
+
+        // Now the youngest, so 2 is the one to go
+        assertTrue(ids.add(1));
+        assertTrue(ids.contains(1) && ids.contains(3));
+        assertFalse(ids.contains(2));
+    }
+
+    @Test
+    void matchesASimpleModelUnderChurn() {
+        // Ids from a small range collide and wrap around the table, which exercises the backward-shift deletion
+        int capacity = 64;
+        RecentIdSet ids = new RecentIdSet(capacity);
+        ArrayDeque<Long> order = new ArrayDeque<>();
+        Set<Long> model = new HashSet<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            long id = random.nextInt(200) - 100;
+            boolean added = model.add(id);
+            assertEquals(added, ids.add(id), "add(" + id + ") at step " + i);
+            if (added) {
+                order.addLast(id);
+                if (order.size() > capacity) {
+                    model.remove(order.removeFirst());
+                }
+            }
+        }
+        assertEquals(model.size(), ids.size());
+        for (long id = -100; id < 100; id++) {
+            assertEquals(model.contains(id), ids.contains(id), "contains(" + id + ")");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.irc.network;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.irc.config.IrcConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RequestTemplateTest {
+    private static final Gson GSON = new Gson();
+    private static final String URL = "https://irc.example.invalid";
+    private static final String SESSION_ID = "session";
+    // Quotes, backslashes, HTML characters Gson escapes, a line separator and a character outside the BMP
+    private static final String AWKWARD = "say \"hi\" \\ <b>&</b>\n  café 😀";
+    private static final long[] VALUES = {0, 1, -1, 9, 10, -10, 99, 100, 1_700_000_000_000L, -1_700_000_000_000L,
+            Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+
+    @BeforeEach
+    void load(@TempDir Path directory) throws IOException {
+        IrcConfig.ConfigData config = new IrcConfig.ConfigData();
+        config.discordToken = AWKWARD;
+        config.metricsDumpIntervalSeconds = 0;
+        Path configFile = directory.resolve("irc-config.json");
+        Files.writeString(configFile, GSON.toJson(config), StandardCharsets.UTF_8);
+        IrcConfig.useConfigFile(configFile);
+        IrcConfig.load();
+    }
+
+    // What the template replaced: a Gson tree per request
+    private static String expected(String action, Object... fieldsAndValues) {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("action", action);
+        payload.addProperty("sessionId", SESSION_ID);
+        payload.addProperty("token", IrcConfig.getDiscordToken());
+        for (int i = 0; i < fieldsAndValues.length; i += 2) {
+            String field = (String) fieldsAndValues[i];
+            Object value = fieldsAndValues[i + 1];
+            if (value instanceof Long number) {
+                payload.addProperty(field, number);
+            } else {
+                payload.addProperty(field, (String) value);
+            }
+        }
+        return GSON.toJson(payload);
+    }
+
+    private static String body(HttpRequest request) throws Exception {
+        HttpRequest.BodyPublisher publisher = request.bodyPublisher().orElseThrow();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.writeBytes(bytes);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get();
+        byte[] bytes = out.toByteArray();
+        if (request.headers().firstValue("Content-Encoding").filter("gzip"::equals).isPresent()) {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = in.readAllBytes();
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void splicedNumbersMatchGson() throws Exception {
+        RequestTemplate single = new RequestTemplate(URL, "receive", SESSION_ID, "latest");
+        RequestTemplate pair = new RequestTemplate(URL, "receive", SESSION_ID, "lastTimestamp", "lastId");
+        for (long first : VALUES) {
+            assertEquals(expected("receive", "latest", first), body(single.request(first)));
+            for (long second : VALUES) {
+                assertEquals(expected("receive", "lastTimestamp", first, "lastId", second),
+                        body(pair.request(first, second)));
+            }
+        }
+    }
+
+    @Test
+    void splicedTextMatchesGson() throws Exception {
+        RequestTemplate template = new RequestTemplate(URL, "receive", SESSION_ID, "lastTimestamp", "lastId",
+                "continuation");
+        for (long value : VALUES) {
+            assertEquals(expected("receive", "lastTimestamp", value, "lastId", -value, "continuation", AWKWARD),
+                    body(template.request(value, -value, AWKWARD)));
+        }
+
+        RequestTemplate send = new RequestTemplate(URL, "send", SESSION_ID, "message", "key");
+        assertEquals(expected("send", "message", AWKWARD, "key", "k\"1"),
+                body(send.requestWithJson(GSON.toJson(AWKWARD), GSON.toJson("k\"1"))));
+
+        // Long enough to be compressed on the way out
+        String longText = AWKWARD.repeat(200);
+        RequestTemplate text = new RequestTemplate(URL, "send", SESSION_ID, "message");
+        assertEquals(expected("send", "message", longText), body(text.request(longText)));
+    }
+
+    @Test
+    void unchangedValuesReuseTheRequest() throws Exception {
+        RequestTemplate template = new RequestTemplate(URL, "receive", SESSION_ID, "lastTimestamp", "lastId");
+        HttpRequest first = template.request(5, 6);
+        assertSame(first, template.request(5, 6));
+        assertNotSame(first, template.request(5, 7));
+
+        // A config change re-encodes the static part, e.g. a new token
+        HttpRequest before = template.request(5, 7);
+        IrcConfig.setDiscordToken("new-token");
+        try {
+            HttpRequest after = template.request(5, 7);
+            assertNotSame(before, after);
+            assertEquals(expected("receive", "lastTimestamp", 5L, "lastId", 7L), body(after));
+        } finally {
+            IrcConfig.flush();
+        }
+    }
+}